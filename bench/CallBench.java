@@ -0,0 +1,57 @@
+import lexer.Lexer;
+import lexer.TokenStore;
+import runtime.JILFunction;
+import runtime.JILInterpreter;
+import runtime.JILMemory;
+import runtime.errors.JILException;
+
+import java.util.HashMap;
+
+/**
+ * Measures the overhead of calling a 50 line function that returns on its first line
+ * <p>
+ * Compile against the interpreter's classes and run with {@code java -cp out/production/jil:bench CallBench [calls]}
+ */
+public class CallBench {
+    private interface Call {
+        void run() throws JILException;
+    }
+
+    private static void measure(String name, int calls, Call call) throws JILException {
+        for (int i = 0; i < calls; i++)
+            call.run();
+
+        long start = System.nanoTime();
+        for (int i = 0; i < calls; i++)
+            call.run();
+        long elapsed = System.nanoTime() - start;
+
+        System.out.printf("%-40s %10.1f ns/call%n", name, (double) elapsed / calls);
+    }
+
+    public static void main(String[] args) throws JILException {
+        int calls = args.length > 0 ? Integer.parseInt(args[0]) : 200000;
+
+        StringBuilder src = new StringBuilder("ret 0\n");
+        for (int i = 0; i < 49; i++) {
+            switch (i % 4) {
+                case 0 -> src.append("lbl l").append(i).append('\n');
+                case 1 -> src.append("def v").append(i).append(" 0\n");
+                case 2 -> src.append("set v").append(i - 1).append(" v").append(i - 1).append(" 1 +\n");
+                case 3 -> src.append("goto l").append(i - 3).append('\n');
+            }
+        }
+
+        TokenStore body = new Lexer(src.toString()).lexStore();
+        JILMemory memory = new JILMemory(0);
+        HashMap<String, JILFunction> funcs = new HashMap<>();
+
+        JILFunction tokenFunc = new JILFunction(body, 0, false);
+        JILFunction compiledFunc = new JILFunction(body, 0, true);
+
+        System.out.printf("calling a %d line function %d times%n", body.lines(), calls);
+        measure("token path, prepared on every call", calls, () -> new JILInterpreter(memory, funcs).execute("f", 0, true, body));
+        measure("token path, prepared once", calls, () -> tokenFunc.run("f", 0, memory, funcs));
+        measure("compiled, prepared once", calls, () -> compiledFunc.run("f", 0, memory, funcs));
+    }
+}
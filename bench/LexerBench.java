@@ -0,0 +1,183 @@
+import lexer.Lexer;
+import lexer.LexerException;
+import lexer.Token;
+import lexer.TokenType;
+import runtime.errors.JILException;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Objects;
+
+/**
+ * Checks that the lexer produces the same tokens as the line-by-line lexer it replaced, then measures both in MB/s
+ * <p>
+ * Compile against the interpreter's classes and run with {@code java -cp out/production/jil:bench LexerBench [megabytes] [files...]},
+ * which checks and measures {@code examples/*.jil} when no files are given
+ */
+public class LexerBench {
+    private interface Lex {
+        Token[][] run(String text) throws JILException;
+    }
+
+    private interface Run {
+        void run(String text) throws JILException;
+    }
+
+    /**
+     * The lexer as it was before it scanned the whole file at once, kept as the reference the current one is checked against
+     */
+    private static Token[][] reference(String text) throws LexerException {
+        ArrayList<Token[]> tokens = new ArrayList<>();
+
+        int ln = 1;
+        for (String line : text.split("\n")) {
+            Token[] tl = referenceLine(line, ln);
+            if (tl.length > 0)
+                tokens.add(tl);
+
+            ln++;
+        }
+
+        return tokens.toArray(new Token[0][]);
+    }
+
+    private static Token[] referenceLine(String line, int ln) throws LexerException {
+        ArrayList<Token> tokens = new ArrayList<>();
+
+        StringBuilder acc = null;
+        int start = -1;
+        int idx = 0;
+
+        while (idx < line.length()) {
+            Character ch = line.charAt(idx);
+
+            if (ch == '"') {
+                if (acc != null) {
+                    tokens.add(new Token(TokenType.Ident, acc.toString(), start, ln));
+                    acc = null;
+                }
+
+                int strStart = idx + 1;
+                StringBuilder str = new StringBuilder();
+                boolean escaped = false;
+
+                for (idx++; idx < line.length(); idx++) {
+                    ch = line.charAt(idx);
+                    if (escaped) {
+                        switch (ch) {
+                            case '\\', '\'', '"' -> str.append(ch);
+                            case 'n' -> str.append('\n');
+                            case 't' -> str.append('\t');
+                            case 'v' -> str.append((char) 11);
+                            case 'a' -> str.append((char) 7);
+                            case 'f' -> str.append('\f');
+                            case 'r' -> str.append('\r');
+                            case '0' -> str.append('\0');
+                            default -> throw new LexerException(Token.dummy(idx + 1, ln).format("invalid escape character '%c'", ch));
+                        }
+                        escaped = false;
+                    } else if (ch == '\\') {
+                        escaped = true;
+                    } else if (ch == '"') {
+                        break;
+                    } else {
+                        str.append(ch);
+                    }
+                }
+
+                if (idx >= line.length())
+                    throw new LexerException(Token.dummy(strStart, ln).format("unterminated string literal"));
+
+                idx++;
+                tokens.add(new Token(TokenType.String, str.toString(), strStart, ln));
+            } else if (ch <= 20 || ch == ' ') {
+                if (acc != null) {
+                    tokens.add(new Token(TokenType.Ident, acc.toString(), start, ln));
+                    acc = null;
+                }
+                idx++;
+            } else if (ch == '/' && Objects.equals(idx + 1 < line.length() ? line.charAt(idx + 1) : null, '/')) {
+                break;
+            } else {
+                if (acc == null) {
+                    start = idx + 1;
+                    acc = new StringBuilder();
+                }
+
+                acc.append(ch);
+                idx++;
+            }
+        }
+
+        if (acc != null)
+            tokens.add(new Token(TokenType.Ident, acc.toString(), start, ln));
+
+        return tokens.toArray(new Token[0]);
+    }
+
+    private static String result(Lex lex, String text) {
+        try {
+            return Arrays.deepToString(lex.run(text));
+        } catch (JILException e) {
+            return e.getMessage();
+        }
+    }
+
+    private static void measure(String name, String text, Run lex) throws JILException {
+        for (int i = 0; i < 5; i++)
+            lex.run(text);
+
+        int runs = 10;
+        long start = System.nanoTime();
+        for (int i = 0; i < runs; i++)
+            lex.run(text);
+        long elapsed = System.nanoTime() - start;
+
+        double mb = (double) text.length() * runs / (1024 * 1024);
+        System.out.printf("%-40s %10.1f MB/s%n", name, mb / (elapsed / 1e9));
+    }
+
+    public static void main(String[] args) throws IOException, JILException {
+        int megabytes = args.length > 0 ? Integer.parseInt(args[0]) : 16;
+
+        ArrayList<Path> files = new ArrayList<>();
+        if (args.length > 1) {
+            for (int i = 1; i < args.length; i++)
+                files.add(Path.of(args[i]));
+        } else {
+            try (var paths = Files.list(Path.of("examples"))) {
+                paths.filter(p -> p.toString().endsWith(".jil")).sorted().forEach(files::add);
+            }
+        }
+
+        StringBuilder all = new StringBuilder();
+        for (Path file : files) {
+            String text = Files.readString(file);
+            all.append(text).append('\n');
+
+            String expected = result(LexerBench::reference, text);
+            boolean same = expected.equals(result(t -> new Lexer(t, false).lex(), text));
+            System.out.printf("%-40s %s%n", file, same ? "same tokens" : "DIFFERENT TOKENS");
+            if (!same)
+                System.exit(1);
+        }
+
+        StringBuilder big = new StringBuilder();
+        while (big.length() < megabytes * 1024 * 1024)
+            big.append(all);
+        String text = big.toString();
+
+        if (!result(LexerBench::reference, text).equals(result(t -> new Lexer(t, true).lex(), text))) {
+            System.out.println("parallel lexing produced different tokens");
+            System.exit(1);
+        }
+
+        System.out.printf("lexing %.1f MB%n", (double) text.length() / (1024 * 1024));
+        measure("line by line (reference)", text, LexerBench::reference);
+        measure("single pass", text, t -> new Lexer(t, false).lexStore());
+        measure("single pass, parallel", text, t -> new Lexer(t, true).lexStore());
+    }
+}
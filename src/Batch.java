@@ -0,0 +1,151 @@
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Runs many files in one JVM, several at a time
+ * <p>
+ * A batch is either a directory, whose {@code .jil} files are run in name order, or a manifest with one command line per line,
+ * a file followed by any flags for it; blank lines and lines starting with {@code #} are skipped.
+ * Each file runs through {@code Main.run} with its own interpreter and memory, so the only things the runs share are
+ * loaded classes, native modules and {@code ~/jil/cache}. The output of each file is printed in batch order once it has finished,
+ * followed by how long it took and a summary of the whole batch
+ */
+final class Batch {
+    private record Job(String name, String[] args) {
+    }
+
+    private record Result(Job job, int code, String output, long nanos) {
+    }
+
+    private Batch() {
+    }
+
+    /**
+     * @param flags the flags every file is run with, before the ones a manifest gives it
+     */
+    static int run(File source, String[] flags, int jobs, PrintStream out, File workingDir) {
+        List<Job> batch;
+        try {
+            batch = source.isDirectory() ? directory(source, flags) : manifest(source, flags);
+        } catch (IOException e) {
+            out.printf("could not read batch '%s': %s%n", source, e.getMessage());
+            return 1;
+        }
+
+        if (batch.isEmpty()) {
+            out.printf("batch '%s' has no files to run%n", source);
+            return 1;
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(Math.min(jobs, batch.size()));
+        long start = System.nanoTime();
+
+        ArrayList<Future<Result>> futures = new ArrayList<>();
+        for (Job job : batch)
+            futures.add(executor.submit(() -> run(job, workingDir)));
+
+        int failed = 0;
+        long busy = 0;
+        try {
+            for (Future<Result> future : futures) {
+                Result result = future.get();
+                busy += result.nanos;
+                if (result.code != 0)
+                    failed++;
+
+                out.printf("== %s%n", result.job.name);
+                out.print(result.output);
+                out.printf("== %s: exit %d in %.1f ms%n", result.job.name, result.code, result.nanos / 1e6);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            out.println("batch was interrupted");
+            return 1;
+        } catch (ExecutionException e) {
+            out.println("batch failed: " + e.getCause());
+            return 1;
+        } finally {
+            executor.shutdownNow();
+        }
+
+        long elapsed = System.nanoTime() - start;
+        out.printf("%d files, %d failed, in %.1f ms on %d threads (%.1f files/s, %.1f ms of running per file)%n",
+                batch.size(), failed, elapsed / 1e6, Math.min(jobs, batch.size()), batch.size() / (elapsed / 1e9), busy / 1e6 / batch.size());
+
+        return failed == 0 ? 0 : 1;
+    }
+
+    private static Result run(Job job, File workingDir) {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        PrintStream printed = new PrintStream(output, false, StandardCharsets.UTF_8);
+
+        long start = System.nanoTime();
+        int code;
+        try {
+            code = Main.run(job.args, printed, workingDir);
+        } catch (RuntimeException | StackOverflowError e) {
+            printed.println("Exception in batch: " + e);
+            code = 1;
+        }
+        long nanos = System.nanoTime() - start;
+
+        printed.flush();
+        return new Result(job, code, output.toString(StandardCharsets.UTF_8), nanos);
+    }
+
+    private static List<Job> directory(File dir, String[] flags) throws IOException {
+        File[] files = dir.listFiles((d, name) -> name.endsWith(".jil"));
+        if (files == null)
+            throw new IOException("not a readable directory");
+
+        Arrays.sort(files);
+
+        ArrayList<Job> batch = new ArrayList<>();
+        for (File file : files)
+            batch.add(new Job(file.getName(), withFile(file.getPath(), flags, new String[0])));
+
+        return batch;
+    }
+
+    private static List<Job> manifest(File manifest, String[] flags) throws IOException {
+        File dir = manifest.getAbsoluteFile().getParentFile();
+
+        ArrayList<Job> batch = new ArrayList<>();
+        for (String line : Files.readAllLines(manifest.toPath(), StandardCharsets.UTF_8)) {
+            line = line.strip();
+            if (line.isEmpty() || line.startsWith("#"))
+                continue;
+
+            String[] parts = line.split("\\s+");
+            File file = new File(parts[0]);
+            if (!file.isAbsolute())
+                file = new File(dir, parts[0]);
+
+            batch.add(new Job(line, withFile(file.getPath(), flags, Arrays.copyOfRange(parts, 1, parts.length))));
+        }
+
+        return batch;
+    }
+
+    /**
+     * The command line of one file; the file comes first so it is the one {@code Main} runs
+     */
+    private static String[] withFile(String file, String[] flags, String[] own) {
+        String[] args = new String[1 + flags.length + own.length];
+        args[0] = file;
+        System.arraycopy(flags, 0, args, 1, flags.length);
+        System.arraycopy(own, 0, args, 1 + flags.length, own.length);
+        return args;
+    }
+}
@@ -0,0 +1,163 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.Channels;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Runs jil as a server that keeps a JVM warm between runs, and as the client that sends files to it
+ * <p>
+ * A client sends its working directory and command line over a Unix domain socket. The server runs them the way {@code Main} would,
+ * each request on its own thread with its own interpreter and memory, while classes, native modules and {@code ~/jil/cache} stay loaded.
+ * Output is streamed back as it is written, followed by the exit code
+ */
+final class Daemon {
+    // "JILD"
+    private static final int MAGIC = 0x4A494C44;
+
+    private static final byte OUTPUT = 0;
+    private static final byte EXIT = 1;
+
+    private Daemon() {
+    }
+
+    static String defaultSocket() {
+        return System.getProperty("user.home") + File.separator + "jil" + File.separator + "jil.sock";
+    }
+
+    /**
+     * A virtual thread per request where the JVM has them, otherwise a cached pool of platform threads;
+     * looked up reflectively so jil still builds and runs on Java 17
+     */
+    private static ExecutorService requestExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException | UnsupportedOperationException e) {
+            return Executors.newCachedThreadPool();
+        }
+    }
+
+    static int serve(Path socket, PrintStream log) {
+        ExecutorService executor = requestExecutor();
+
+        try (ServerSocketChannel server = ServerSocketChannel.open(StandardProtocolFamily.UNIX)) {
+            Path dir = socket.toAbsolutePath().getParent();
+            if (dir != null)
+                Files.createDirectories(dir);
+            Files.deleteIfExists(socket);
+
+            server.bind(UnixDomainSocketAddress.of(socket));
+            Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+                try {
+                    Files.deleteIfExists(socket);
+                } catch (IOException ignored) {
+                }
+            }));
+
+            log.println("serving on " + socket);
+            log.flush();
+
+            while (true) {
+                SocketChannel channel = server.accept();
+                executor.execute(() -> handle(channel));
+            }
+        } catch (IOException e) {
+            log.printf("could not serve on '%s': %s%n", socket, e.getMessage());
+            return 1;
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    private static void handle(SocketChannel channel) {
+        try (channel) {
+            DataInputStream in = new DataInputStream(new BufferedInputStream(Channels.newInputStream(channel)));
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(channel)));
+
+            if (in.readInt() != MAGIC)
+                return;
+
+            File workingDir = new File(in.readUTF());
+            String[] args = new String[in.readInt()];
+            for (int i = 0; i < args.length; i++)
+                args[i] = in.readUTF();
+
+            PrintStream printed = new PrintStream(new OutputStream() {
+                @Override
+                public void write(int b) throws IOException {
+                    write(new byte[]{(byte) b}, 0, 1);
+                }
+
+                @Override
+                public void write(byte[] b, int off, int len) throws IOException {
+                    out.writeByte(OUTPUT);
+                    out.writeInt(len);
+                    out.write(b, off, len);
+                    out.flush();
+                }
+            }, false, StandardCharsets.UTF_8);
+
+            int code;
+            try {
+                code = Main.run(args, printed, workingDir);
+            } catch (RuntimeException | StackOverflowError e) {
+                printed.println("Exception in jil server: " + e);
+                code = 1;
+            }
+
+            printed.flush();
+            out.writeByte(EXIT);
+            out.writeInt(code);
+            out.flush();
+        } catch (IOException ignored) {
+            // the client went away; there is no one left to report to
+        }
+    }
+
+    static int client(Path socket, String[] args, PrintStream out) {
+        try (SocketChannel channel = SocketChannel.open(UnixDomainSocketAddress.of(socket))) {
+            DataOutputStream request = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(channel)));
+            request.writeInt(MAGIC);
+            request.writeUTF(System.getProperty("user.dir"));
+            request.writeInt(args.length);
+            for (String arg : args)
+                request.writeUTF(arg);
+            request.flush();
+
+            DataInputStream in = new DataInputStream(new BufferedInputStream(Channels.newInputStream(channel)));
+            while (true) {
+                byte type = in.readByte();
+                if (type == OUTPUT) {
+                    byte[] chunk = new byte[in.readInt()];
+                    in.readFully(chunk);
+                    out.write(chunk);
+                } else if (type == EXIT) {
+                    out.flush();
+                    return in.readInt();
+                } else {
+                    throw new IOException("unknown message from the server");
+                }
+            }
+        } catch (EOFException e) {
+            out.println("the server closed the connection before the file finished running");
+            return 1;
+        } catch (IOException e) {
+            out.printf("could not reach the server at '%s': %s%n", socket, e.getMessage());
+            return 1;
+        }
+    }
+}
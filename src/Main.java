@@ -2,43 +2,114 @@ import argparse.ArgparseException;
 import argparse.Argparser;
 import argparse.Flag;
 import runtime.errors.JILException;
+import runtime.JILImage;
 import runtime.JILInterpreter;
+import runtime.JILMemory;
+import runtime.JILOutput;
 
 import java.io.*;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
 
 public class Main {
     public static void main(String[] args) {
+        System.exit(run(args, System.out, null));
+    }
+
+    /**
+     * Runs jil with the command line {@code args}, printing to {@code out}, and returns its exit code
+     *
+     * @param workingDir the directory relative paths are resolved against, or {@code null} for the working directory of the process
+     */
+    static int run(String[] args, PrintStream out, File workingDir) {
         Argparser parser = new Argparser("jil");
 
         Flag<Boolean> help = parser.addFlag("h", false, Boolean::parseBoolean, "Lists the flags of the program");
         Flag<Boolean> runTests = parser.addFlag("t", false, Boolean::parseBoolean, "Runs the language tests");
         Flag<Boolean> showVars = parser.addFlag("vars", false, Boolean::parseBoolean, "Prints the variables after execution");
         Flag<Boolean> showFuncs = parser.addFlag("funcs", false, Boolean::parseBoolean, "Prints the functions after execution");
-        Flag<Integer> memorySize = parser.addFlag("m", 0, Integer::parseInt, "The amount of memory the interpreter has");
+        Flag<Boolean> tokenMode = parser.addFlag("tokens", false, Boolean::parseBoolean, "Runs functions on the token interpreter instead of compiling them");
+        Flag<Boolean> noTier = parser.addFlag("notier", false, Boolean::parseBoolean, "Keeps hot functions on the interpreter instead of compiling them to JVM bytecode");
+        Flag<Boolean> noCache = parser.addFlag("nocache", false, Boolean::parseBoolean, "Lexes the file from source instead of using or writing its entry in ~/jil/cache");
+        Flag<Boolean> noVerify = parser.addFlag("noverify", false, Boolean::parseBoolean, "Skips checking every function when the file is loaded, so problems are only reported once a bad line runs");
+        Flag<Boolean> disassemble = parser.addFlag("dis", false, Boolean::parseBoolean, "Prints the compiled form of each function before execution");
+        Flag<Long> memorySize = parser.addFlag("m", 0L, Long::parseLong, "The amount of memory the interpreter has");
+        Flag<Long> memoryMax = parser.addFlag("mmax", 0L, Long::parseLong, "The most memory the interpreter can grow to; 0 for no limit");
+        Flag<Double> memoryGrowth = parser.addFlag("mgrow", 2.0, Double::parseDouble, "The factor memory grows by when an allocation does not fit");
+        Flag<Boolean> memoryShrink = parser.addFlag("mshrink", false, Boolean::parseBoolean, "Shrinks memory again once most of it has been freed");
+        Flag<Boolean> memoryStats = parser.addFlag("mstats", false, Boolean::parseBoolean, "Prints how often memory was resized after execution");
+        Flag<Boolean> fusionStats = parser.addFlag("fstats", false, Boolean::parseBoolean, "Prints how often the superinstructions of each function ran after execution");
+        Flag<Boolean> unbuffered = parser.addFlag("unbuffered", false, Boolean::parseBoolean, "Writes output as soon as it is printed instead of buffering it");
+        Flag<Boolean> offHeap = parser.addFlag("offheap", false, Boolean::parseBoolean, "Keeps memory outside the Java heap, which lets it grow past 2^31 cells");
+        Flag<String> initFunc = parser.addFlag("init", "", s -> s, "A function to run before 'main', whose variables 'main' starts out with; 'init' when snapshotting or restoring");
+        Flag<String> snapshot = parser.addFlag("snapshot", "", s -> s, "Writes memory and the variables of the init function to an image file after it has run");
+        Flag<String> restore = parser.addFlag("restore", "", s -> s, "Starts from an image file written by -snapshot instead of running the init function");
+        Flag<JILMemory.Allocator> allocator = parser.addFlag("alloc", JILMemory.Allocator.FREE_LIST, JILMemory.Allocator::parse, "The memory allocator to use; 'freelist' or 'compact'");
+        Flag<Boolean> serve = parser.addFlag("serve", false, Boolean::parseBoolean, "Keeps this JVM running to run the files sent to it with -client");
+        Flag<Boolean> client = parser.addFlag("client", false, Boolean::parseBoolean, "Runs the file on the server started with -serve instead of in this JVM");
+        Flag<String> socket = parser.addFlag("socket", Daemon.defaultSocket(), s -> s, "The Unix domain socket -serve listens on and -client connects to");
+        Flag<String> batch = parser.addFlag("batch", "", s -> s, "Runs every file in a directory, or every command line in a manifest file, in parallel in this JVM");
+        Flag<Integer> jobs = parser.addFlag("jobs", Runtime.getRuntime().availableProcessors(), Integer::parseInt, "How many files -batch runs at once");
 
         String[] leftover = new String[0];
         try {
             leftover = parser.parse(args);
         } catch (ArgparseException e) {
-            System.out.println(e.getMessage());
-            System.out.println(parser.help());
-            System.exit(1);
+            out.println(e.getMessage());
+            out.println(parser.help());
+            return 1;
         }
 
         if (help.get()) {
-            System.out.println(parser.help());
-            System.exit(0);
+            out.println(parser.help());
+            return 0;
+        }
+
+        if (serve.get() && workingDir != null) {
+            out.println("cannot start a server from a client");
+            return 1;
+        } else if (serve.get()) {
+            return Daemon.serve(Path.of(socket.get()), out);
+        } else if (client.get()) {
+            return Daemon.client(Path.of(socket.get()), without(args, List.of("client"), List.of("socket")), out);
+        } else if (!batch.get().isEmpty()) {
+            if (jobs.get() < 1) {
+                out.println("-jobs must be at least 1");
+                return 1;
+            }
+
+            return Batch.run(resolve(workingDir, batch.get()), without(args, List.of(), List.of("batch", "jobs")), jobs.get(), out, workingDir);
         }
 
-        JILInterpreter interpreter = new JILInterpreter(memorySize.get());
+        JILMemory.Backend backend = offHeap.get() ? JILMemory.Backend.OFF_HEAP : JILMemory.Backend.HEAP;
+        if (memorySize.get() < 0) {
+            out.println("-m cannot be negative");
+            return 1;
+        } else if (backend == JILMemory.Backend.HEAP && memorySize.get() > backend.limit()) {
+            out.printf("-m %d is more than heap memory can hold; use -offheap for more than 2^31 cells%n", memorySize.get());
+            return 1;
+        } else if (memorySize.get() > backend.limit()) {
+            out.printf("-m %d is more than the %d cells off-heap memory can hold%n", memorySize.get(), backend.limit());
+            return 1;
+        }
+
+        JILMemory memory = new JILMemory(memorySize.get(), allocator.get(), new JILMemory.Growth(memoryGrowth.get(), memoryMax.get(), memoryShrink.get()), backend);
+        memory.setOutput(new JILOutput(out, 1 << 16, !unbuffered.get()));
+        memory.setWorkingDir(workingDir);
+        JILInterpreter interpreter = new JILInterpreter(memory);
+        interpreter.setCompile(!tokenMode.get());
+        interpreter.setTiering(!noTier.get());
+        interpreter.setWorkingDir(workingDir);
 
         if (leftover.length == 0) {
-            System.out.println("expected 'jil [file]'");
-            System.exit(1);
+            out.println("expected 'jil [file]'");
+            return 1;
         }
 
         String content = "";
-        try(BufferedReader br = new BufferedReader(new FileReader(leftover[0]))) {
+        try(BufferedReader br = new BufferedReader(new FileReader(resolve(workingDir, leftover[0])))) {
             StringBuilder sb = new StringBuilder();
             String line = br.readLine();
 
@@ -50,22 +121,83 @@ public class Main {
 
             content = sb.toString();
         } catch (IOException e) {
-            System.out.println(e.getMessage());
-            System.exit(1);
+            out.println(e.getMessage());
+            return 1;
         }
 
         try {
-            interpreter.execute(new File(leftover[0]).getName(), 0, false, content);
+            if (noCache.get())
+                interpreter.execute(new File(leftover[0]).getName(), 0, false, content);
+            else
+                interpreter.load(new File(leftover[0]).getName(), content);
+            if (!noVerify.get())
+                interpreter.verify();
+
+            if (disassemble.get()) {
+                interpreter.getFuncs().forEach((name, f) -> {
+                    if (f.getProgram() != null)
+                        out.println(name + ":\n" + f.getProgram().disassemble());
+                });
+            }
+
+            String init = initFunc.get();
+            if (init.isEmpty() && (!snapshot.get().isEmpty() || !restore.get().isEmpty()))
+                init = "init";
+
+            if (!restore.get().isEmpty()) {
+                interpreter.setMainBindings(JILImage.restore(resolve(workingDir, restore.get()), memory));
+            } else if (!init.isEmpty()) {
+                Map<String, Integer> bindings = interpreter.runForBindings(init, showVars.get());
+                if (!snapshot.get().isEmpty())
+                    JILImage.save(resolve(workingDir, snapshot.get()), memory, bindings);
+
+                interpreter.setMainBindings(bindings);
+            }
 
             int code = interpreter.runMain(showVars.get());
 
             if (showFuncs.get())
-                System.out.println(interpreter.getFuncs());
+                out.println(interpreter.getFuncs());
+
+            if (fusionStats.get()) {
+                interpreter.getFuncs().forEach((name, f) -> {
+                    if (f.getProgram() != null && f.getProgram().fusionStats() != null)
+                        out.println(name + ": " + f.getProgram().fusionStats());
+                });
+            }
+
+            if (memoryStats.get())
+                out.printf("memory: %d cells, grew %d times, shrank %d times%n", memory.capacity(), memory.grows(), memory.shrinks());
 
-            System.exit(code);
+            return code;
         } catch (JILException e) {
-            System.out.println(e.getMessage());
-            System.exit(1);
+            out.println(e.getMessage());
+            return 1;
+        }
+    }
+
+    private static File resolve(File workingDir, String path) {
+        File file = new File(path);
+        return workingDir == null || file.isAbsolute() ? file : new File(workingDir, path);
+    }
+
+    /**
+     * {@code args} without the boolean flags {@code flags} and the flags {@code options} along with their values,
+     * which is the command line a client sends to the server and the flags a batch passes on to each of its files
+     */
+    private static String[] without(String[] args, List<String> flags, List<String> options) {
+        ArrayList<String> forwarded = new ArrayList<>();
+        for (int i = 0; i < args.length; i++) {
+            String name = args[i].startsWith("--") ? args[i].substring(2) : args[i].startsWith("-") ? args[i].substring(1) : null;
+
+            if (name != null && flags.contains(name))
+                continue;
+            else if (name != null && options.contains(name))
+                i++;
+            else
+                forwarded.add(args[i]);
         }
+
+        return forwarded.toArray(new String[0]);
     }
 }
\ No newline at end of file
@@ -2,140 +2,212 @@ package lexer;
 
 import runtime.errors.JILException;
 
-import java.util.ArrayList;
-import java.util.Objects;
-
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Turns the text of a file into the tokens of each of its non-empty lines
+ * <p>
+ * The text is scanned once as a {@code char[]}, tracking the line and column as it goes, straight into a {@link TokenStore},
+ * and the text of identifiers is interned so equal identifiers and keywords are the same {@code String}
+ */
 public class Lexer {
-    private final String text;
-
-    private class LineLexer {
-        private final String line;
-        private int idx, col;
-        private final int ln;
-        private Character ch;
-
-        LineLexer(String line, int ln) {
-            this.line = line;
-            idx = -1;
-            col = 0;
-            this.ln = ln;
-            ch = null;
-            advance();
+    /**
+     * Files with fewer characters than this are always lexed on the calling thread
+     */
+    public static final int PARALLEL_THRESHOLD = 256 * 1024;
+
+    // the amount of characters a single fork-join task lexes, rounded up to the end of a line
+    private static final int PARALLEL_CHUNK = 32 * 1024;
+
+    private final char[] text;
+    private final boolean parallel;
+
+    /**
+     * Lexes the chunks {@code from} to {@code to}, returning the first error in them instead of throwing it
+     * so the earliest line's error is the one reported
+     */
+    private class ChunkTask extends RecursiveTask<LexerException> {
+        private static final long serialVersionUID = 1L;
+
+        private final int[] offsets, lines;
+        private final TokenStore[] lexed;
+        private final int from, to;
+
+        ChunkTask(int[] offsets, int[] lines, TokenStore[] lexed, int from, int to) {
+            this.offsets = offsets;
+            this.lines = lines;
+            this.lexed = lexed;
+            this.from = from;
+            this.to = to;
         }
 
-        private void advance(int amount) {
-            idx++;
-            col++;
+        @Override
+        protected LexerException compute() {
+            if (to - from == 1) {
+                try {
+                    TokenStore.Builder chunk = new TokenStore.Builder();
+                    scan(offsets[from], offsets[from + 1], lines[from], chunk, new Symbols());
+                    lexed[from] = chunk.build();
+                    return null;
+                } catch (LexerException e) {
+                    return e;
+                }
+            }
 
-            ch = idx < line.length() ? line.charAt(idx) : null;
-        }
+            int mid = (from + to) >>> 1;
+            ChunkTask right = new ChunkTask(offsets, lines, lexed, mid, to);
+            right.fork();
 
-        private void advance() {
-            advance(1);
-        }
+            LexerException left = new ChunkTask(offsets, lines, lexed, from, mid).compute();
+            LexerException res = right.join();
 
-        private Character peek() {
-            return idx + 1 < line.length() ? line.charAt(idx + 1) : null;
+            return left != null ? left : res;
         }
+    }
 
-        private Token collectString() throws LexerException {
-            int start = col;
-            int startln = ln;
-            StringBuilder str = new StringBuilder();
-            boolean escaped = false;
-
-            advance();
-
-            while (ch != null) {
-                if (escaped) {
-                    switch (ch) {
-                        case '\\', '\'', '"' -> str.append(ch);
-                        case 'n' -> str.append('\n');
-                        case 't' -> str.append('\t');
-                        case 'v' -> str.append((char) 11);
-                        case 'a' -> str.append((char) 7);
-                        case 'f' -> str.append('\f');
-                        case 'r' -> str.append('\r');
-                        case '0' -> str.append('\0');
-                        default -> throw new LexerException(Token.dummy(col, ln).format("invalid escape character '%c'", ch));
-                    }
-                    escaped = false;
-                } else if (ch == '\\') {
-                    escaped = true;
-                } else if (ch == '"') {
-                    break;
-                } else {
-                    str.append(ch);
-                }
-                advance();
-            }
+    public Lexer(String text) {
+        this(text, true);
+    }
 
-            if (ch == null)
-                throw new LexerException(Token.dummy(start, startln).format("unterminated string literal"));
+    /**
+     * @param parallel whether files of at least {@link #PARALLEL_THRESHOLD} characters may be lexed across the common fork-join pool
+     */
+    public Lexer(String text, boolean parallel) {
+        this.text = text.toCharArray();
+        this.parallel = parallel;
+    }
 
-            advance();
+    public TokenStore lexStore() throws JILException {
+        if (parallel && text.length >= PARALLEL_THRESHOLD && ForkJoinPool.getCommonPoolParallelism() > 1)
+            return lexParallel();
 
-            return new Token(TokenType.String, str.toString(), start, startln);
-        }
+        TokenStore.Builder tokens = new TokenStore.Builder();
+        scan(0, text.length, 1, tokens, new Symbols());
 
-        Token[] lex() throws LexerException {
-            ArrayList<Token> tokens = new ArrayList<>();
-
-            StringBuilder acc = null;
-            int start = -1;
-            int startln = -1;
-
-            while (ch != null) {
-                if (ch == '"') {
-                    if (acc != null) {
-                        tokens.add(new Token(TokenType.Ident, acc.toString(), start, startln));
-                        acc = null;
-                    }
-                    tokens.add(collectString());
-                } else if (ch <= 20 || ch == ' ') {
-                    if (acc != null) {
-                        tokens.add(new Token(TokenType.Ident, acc.toString(), start, startln));
-                        acc = null;
-                    }
-                    advance();
-                } else if (ch == '/' && Objects.equals(peek(), '/')) {
-                    break;
-                } else {
-                    if (acc == null) {
-                        start = col;
-                        startln = ln;
-                        acc = new StringBuilder();
-                    }
-
-                    acc.append(ch);
-
-                    advance();
-                }
-            }
+        return tokens.build();
+    }
 
-            if (acc != null)
-                tokens.add(new Token(TokenType.Ident, acc.toString(), start, startln));
+    /**
+     * Lexes the text into one {@code Token} per token, for callers that want the tokens as objects
+     */
+    public Token[][] lex() throws JILException {
+        return lexStore().toArrays();
+    }
+
+    /**
+     * Splits the text into chunks that end on line breaks, counting the line each starts on, and lexes them as fork-join tasks
+     */
+    private TokenStore lexParallel() throws JILException {
+        int[] offsets = new int[text.length / PARALLEL_CHUNK + 2];
+        int[] lines = new int[offsets.length];
+        int chunks = 0;
+
+        int ln = 1;
+        int next = PARALLEL_CHUNK;
+        lines[0] = 1;
+        for (int i = 0; i < text.length; i++) {
+            if (text[i] != '\n')
+                continue;
 
-            return tokens.toArray(new Token[0]);
+            ln++;
+            if (i + 1 >= next && i + 1 < text.length) {
+                offsets[++chunks] = i + 1;
+                lines[chunks] = ln;
+                next = i + 1 + PARALLEL_CHUNK;
+            }
         }
+        offsets[++chunks] = text.length;
+
+        TokenStore[] lexed = new TokenStore[chunks];
+
+        LexerException e = ForkJoinPool.commonPool().invoke(new ChunkTask(offsets, lines, lexed, 0, chunks));
+        if (e != null)
+            throw e;
+
+        return TokenStore.concat(lexed);
     }
 
-    public Lexer(String text) {
-        this.text = text;
+    /**
+     * Lexes the lines from {@code from} to {@code to}, the first of which is line {@code ln}, adding the tokens of each non-empty one to {@code out}
+     */
+    private void scan(int from, int to, int ln, TokenStore.Builder out, Symbols symbols) throws LexerException {
+        int lineStart = from;
+        int start = -1;
+
+        int i = from;
+        while (i <= to) {
+            char ch = i < to ? text[i] : '\n';
+
+            if (start != -1 && (ch <= 20 || ch == ' ' || ch == '"' || (ch == '/' && i + 1 < to && text[i + 1] == '/'))) {
+                out.add(TokenType.Ident, symbols.intern(text, start, i), start - lineStart + 1, ln);
+                start = -1;
+            }
+
+            if (ch == '\n') {
+                out.endLine();
+
+                ln++;
+                lineStart = ++i;
+            } else if (ch == '"') {
+                i = string(i, to, lineStart, ln, out);
+            } else if (ch <= 20 || ch == ' ') {
+                i++;
+            } else if (ch == '/' && i + 1 < to && text[i + 1] == '/') {
+                while (i < to && text[i] != '\n')
+                    i++;
+            } else {
+                if (start == -1)
+                    start = i;
+
+                i++;
+            }
+        }
     }
 
-    public Token[][] lex() throws JILException {
-        ArrayList<Token[]> tokens = new ArrayList<>();
+    /**
+     * Lexes the string literal starting at the quote at {@code quote}, returning the index after its closing quote
+     */
+    private int string(int quote, int to, int lineStart, int ln, TokenStore.Builder out) throws LexerException {
+        StringBuilder str = null;
+        int run = quote + 1;
+
+        int i = run;
+        while (i < to && text[i] != '\n' && text[i] != '"') {
+            if (text[i] != '\\') {
+                i++;
+                continue;
+            }
 
-        int ln = 1;
-        for (String line : text.split("\n")) {
-            Token[] tl = new LineLexer(line, ln).lex();
-            if (tl.length > 0)
-                tokens.add(tl);
+            if (str == null)
+                str = new StringBuilder();
+            str.append(text, run, i - run);
+
+            if (++i >= to || text[i] == '\n')
+                break;
+
+            char ch = text[i];
+            switch (ch) {
+                case '\\', '\'', '"' -> str.append(ch);
+                case 'n' -> str.append('\n');
+                case 't' -> str.append('\t');
+                case 'v' -> str.append((char) 11);
+                case 'a' -> str.append((char) 7);
+                case 'f' -> str.append('\f');
+                case 'r' -> str.append('\r');
+                case '0' -> str.append('\0');
+                default -> throw new LexerException(Token.dummy(i - lineStart + 1, ln).format("invalid escape character '%c'", ch));
+            }
 
-            ln++;
+            run = ++i;
         }
 
-        return tokens.toArray(new Token[0][]);
+        if (i >= to || text[i] != '"')
+            throw new LexerException(Token.dummy(quote - lineStart + 1, ln).format("unterminated string literal"));
+
+        String content = str == null ? new String(text, run, i - run) : str.append(text, run, i - run).toString();
+        out.add(TokenType.String, content, quote - lineStart + 1, ln);
+
+        return i + 1;
     }
 }
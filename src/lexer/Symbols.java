@@ -0,0 +1,72 @@
+package lexer;
+
+/**
+ * Interns the text of identifiers straight from the lexer's buffer
+ * <p>
+ * Text seen before is found without allocating, and new text goes through {@link String#intern()}, so the same identifier
+ * or keyword is one {@code String} across every file, lexer task and Java literal, and compares by identity
+ */
+final class Symbols {
+    private String[] table;
+    private int size;
+
+    Symbols() {
+        table = new String[256];
+        size = 0;
+    }
+
+    String intern(char[] buf, int from, int to) {
+        int hash = 0;
+        for (int i = from; i < to; i++)
+            hash = 31 * hash + buf[i];
+
+        int mask = table.length - 1;
+        int idx = mix(hash) & mask;
+
+        for (String s; (s = table[idx]) != null; idx = (idx + 1) & mask) {
+            if (s.hashCode() == hash && matches(s, buf, from, to))
+                return s;
+        }
+
+        String s = new String(buf, from, to - from).intern();
+        table[idx] = s;
+
+        if (++size * 2 > table.length)
+            grow();
+
+        return s;
+    }
+
+    private static int mix(int hash) {
+        return hash ^ (hash >>> 16);
+    }
+
+    private static boolean matches(String s, char[] buf, int from, int to) {
+        if (s.length() != to - from)
+            return false;
+
+        for (int i = from; i < to; i++) {
+            if (s.charAt(i - from) != buf[i])
+                return false;
+        }
+
+        return true;
+    }
+
+    private void grow() {
+        String[] old = table;
+        table = new String[old.length * 2];
+        int mask = table.length - 1;
+
+        for (String s : old) {
+            if (s == null)
+                continue;
+
+            int idx = mix(s.hashCode()) & mask;
+            while (table[idx] != null)
+                idx = (idx + 1) & mask;
+
+            table[idx] = s;
+        }
+    }
+}
@@ -0,0 +1,364 @@
+package lexer;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Objects;
+
+/**
+ * The tokens of a sequence of lines kept in parallel primitive arrays instead of one {@code Token} per token
+ * <p>
+ * Each token is its kind, the id of its text in the store's symbol table, its line and its column, so a token costs 13 bytes
+ * and the text of repeated identifiers is kept once. Tokens are addressed by line and by their index in that line;
+ * {@link #slice} and {@link #range} are views over the same arrays, and {@code Token}s are only made when asked for
+ */
+public final class TokenStore {
+    private static final TokenType[] kindValues = TokenType.values();
+
+    private final byte[] kinds;
+    private final int[] symbols, lns, cols;
+    // the index of the first token of each line, plus the end of the last one
+    private final int[] lineStarts;
+    private final String[] symbolTable;
+    private final int firstLine, lineCount;
+
+    /**
+     * The tokens of one line from a given index onwards, without copying them
+     */
+    public final class Range {
+        private final int start, end;
+
+        private Range(int start, int end) {
+            this.start = start;
+            this.end = end;
+        }
+
+        public int length() {
+            return end - start;
+        }
+
+        public TokenType kind(int i) {
+            return kindValues[kinds[at(i)]];
+        }
+
+        public String content(int i) {
+            return symbolTable[symbols[at(i)]];
+        }
+
+        public boolean is(int i, TokenType kind) {
+            return kinds[at(i)] == kind.ordinal();
+        }
+
+        public boolean is(int i, String content) {
+            return content(i).equals(content);
+        }
+
+        public Token get(int i) {
+            return token(at(i));
+        }
+
+        /**
+         * This range from its token {@code i} onwards
+         */
+        public Range from(int i) {
+            Objects.checkFromToIndex(0, i, length());
+            return new Range(start + i, end);
+        }
+
+        // the index of token i in the store's arrays, which must be in this range rather than the next line
+        private int at(int i) {
+            return start + Objects.checkIndex(i, end - start);
+        }
+
+        public Token[] toArray() {
+            Token[] tokens = new Token[length()];
+            for (int i = 0; i < tokens.length; i++)
+                tokens[i] = token(start + i);
+
+            return tokens;
+        }
+    }
+
+    /**
+     * Adds tokens to a new store one line at a time
+     */
+    public static final class Builder {
+        private byte[] kinds;
+        private int[] symbols, lns, cols;
+        private int size;
+        private int[] lineStarts;
+        private int lineCount;
+        private final HashMap<String, Integer> ids;
+        private String[] symbolTable;
+
+        public Builder() {
+            kinds = new byte[256];
+            symbols = new int[256];
+            lns = new int[256];
+            cols = new int[256];
+            size = 0;
+            lineStarts = new int[64];
+            lineCount = 0;
+            ids = new HashMap<>();
+            symbolTable = new String[64];
+        }
+
+        /**
+         * Adds a token to the end of the current line
+         */
+        public void add(TokenType kind, String content, int col, int ln) {
+            if (size == kinds.length) {
+                kinds = Arrays.copyOf(kinds, size * 2);
+                symbols = Arrays.copyOf(symbols, size * 2);
+                lns = Arrays.copyOf(lns, size * 2);
+                cols = Arrays.copyOf(cols, size * 2);
+            }
+
+            kinds[size] = (byte) kind.ordinal();
+            symbols[size] = symbol(content);
+            lns[size] = ln;
+            cols[size] = col;
+            size++;
+        }
+
+        private int symbol(String content) {
+            Integer id = ids.get(content);
+            if (id != null)
+                return id;
+
+            id = ids.size();
+            ids.put(content, id);
+
+            if (id == symbolTable.length)
+                symbolTable = Arrays.copyOf(symbolTable, id * 2);
+            symbolTable[id] = content;
+
+            return id;
+        }
+
+        /**
+         * Ends the current line; a line without tokens is not kept
+         */
+        public void endLine() {
+            if (size == lineStarts[lineCount])
+                return;
+
+            if (++lineCount == lineStarts.length)
+                lineStarts = Arrays.copyOf(lineStarts, lineCount * 2);
+            lineStarts[lineCount] = size;
+        }
+
+        public TokenStore build() {
+            endLine();
+            return new TokenStore(Arrays.copyOf(kinds, size), Arrays.copyOf(symbols, size), Arrays.copyOf(lns, size), Arrays.copyOf(cols, size),
+                    Arrays.copyOf(lineStarts, lineCount + 1), Arrays.copyOf(symbolTable, ids.size()), 0, lineCount);
+        }
+    }
+
+    private TokenStore(byte[] kinds, int[] symbols, int[] lns, int[] cols, int[] lineStarts, String[] symbolTable, int firstLine, int lineCount) {
+        this.kinds = kinds;
+        this.symbols = symbols;
+        this.lns = lns;
+        this.cols = cols;
+        this.lineStarts = lineStarts;
+        this.symbolTable = symbolTable;
+        this.firstLine = firstLine;
+        this.lineCount = lineCount;
+    }
+
+    /**
+     * A store of {@code lines}, keeping any empty ones
+     */
+    public static TokenStore of(Token[][] lines) {
+        int count = 0;
+        for (Token[] tl : lines)
+            count += tl.length;
+
+        byte[] kinds = new byte[count];
+        int[] symbols = new int[count];
+        int[] lns = new int[count];
+        int[] cols = new int[count];
+        int[] lineStarts = new int[lines.length + 1];
+
+        HashMap<String, Integer> ids = new HashMap<>();
+        String[] symbolTable = new String[16];
+
+        int i = 0;
+        for (int ln = 0; ln < lines.length; ln++) {
+            lineStarts[ln] = i;
+
+            for (Token t : lines[ln]) {
+                Integer id = ids.get(t.content());
+                if (id == null) {
+                    id = ids.size();
+                    ids.put(t.content(), id);
+
+                    if (id == symbolTable.length)
+                        symbolTable = Arrays.copyOf(symbolTable, id * 2);
+                    symbolTable[id] = t.content();
+                }
+
+                kinds[i] = (byte) t.kind().ordinal();
+                symbols[i] = id;
+                lns[i] = t.ln();
+                cols[i] = t.col();
+                i++;
+            }
+        }
+        lineStarts[lines.length] = i;
+
+        return new TokenStore(kinds, symbols, lns, cols, lineStarts, Arrays.copyOf(symbolTable, ids.size()), 0, lines.length);
+    }
+
+    /**
+     * Joins stores made by {@link Builder}s into one, in order, merging their symbol tables
+     */
+    static TokenStore concat(TokenStore[] parts) {
+        int count = 0;
+        int lines = 0;
+        for (TokenStore part : parts) {
+            count += part.kinds.length;
+            lines += part.lineCount;
+        }
+
+        byte[] kinds = new byte[count];
+        int[] symbols = new int[count];
+        int[] lns = new int[count];
+        int[] cols = new int[count];
+        int[] lineStarts = new int[lines + 1];
+
+        HashMap<String, Integer> ids = new HashMap<>();
+        String[] symbolTable = new String[16];
+
+        int at = 0;
+        int line = 0;
+        for (TokenStore part : parts) {
+            int[] remap = new int[part.symbolTable.length];
+            for (int i = 0; i < remap.length; i++) {
+                Integer id = ids.get(part.symbolTable[i]);
+                if (id == null) {
+                    id = ids.size();
+                    ids.put(part.symbolTable[i], id);
+
+                    if (id == symbolTable.length)
+                        symbolTable = Arrays.copyOf(symbolTable, id * 2);
+                    symbolTable[id] = part.symbolTable[i];
+                }
+
+                remap[i] = id;
+            }
+
+            int n = part.kinds.length;
+            System.arraycopy(part.kinds, 0, kinds, at, n);
+            System.arraycopy(part.lns, 0, lns, at, n);
+            System.arraycopy(part.cols, 0, cols, at, n);
+            for (int i = 0; i < n; i++)
+                symbols[at + i] = remap[part.symbols[i]];
+
+            for (int i = 0; i < part.lineCount; i++)
+                lineStarts[line++] = at + part.lineStarts[i];
+
+            at += n;
+        }
+        lineStarts[lines] = at;
+
+        return new TokenStore(kinds, symbols, lns, cols, lineStarts, Arrays.copyOf(symbolTable, ids.size()), 0, lines);
+    }
+
+    /**
+     * The number of lines in this store
+     */
+    public int lines() {
+        return lineCount;
+    }
+
+    /**
+     * The number of tokens on line {@code line}
+     */
+    public int length(int line) {
+        Objects.checkIndex(line, lineCount);
+        return lineStarts[firstLine + line + 1] - lineStarts[firstLine + line];
+    }
+
+    public TokenType kind(int line, int i) {
+        return kindValues[kinds[index(line, i)]];
+    }
+
+    public boolean is(int line, int i, TokenType kind) {
+        return kinds[index(line, i)] == kind.ordinal();
+    }
+
+    /**
+     * The id of the text of a token, which is the same for equal text anywhere in this store and the stores sliced from it
+     */
+    public int symbol(int line, int i) {
+        return symbols[index(line, i)];
+    }
+
+    public String content(int line, int i) {
+        return symbolTable[symbols[index(line, i)]];
+    }
+
+    public String symbolName(int symbol) {
+        return symbolTable[symbol];
+    }
+
+    /**
+     * The line in the source file a token is on
+     */
+    public int ln(int line, int i) {
+        return lns[index(line, i)];
+    }
+
+    public int col(int line, int i) {
+        return cols[index(line, i)];
+    }
+
+    public Token get(int line, int i) {
+        return token(index(line, i));
+    }
+
+    /**
+     * Makes the {@code Token}s of one line
+     */
+    public Token[] line(int line) {
+        return range(line, 0).toArray();
+    }
+
+    /**
+     * A view of line {@code line} from its token {@code from} onwards
+     */
+    public Range range(int line, int from) {
+        Objects.checkFromToIndex(0, from, length(line));
+        return new Range(lineStarts[firstLine + line] + from, lineStarts[firstLine + line + 1]);
+    }
+
+    /**
+     * A view of the lines from {@code from} up to but not including {@code to}, sharing this store's arrays
+     */
+    public TokenStore slice(int from, int to) {
+        if (from < 0 || to > lineCount || from > to)
+            throw new IndexOutOfBoundsException(String.format("cannot slice lines %d to %d of %d", from, to, lineCount));
+
+        return new TokenStore(kinds, symbols, lns, cols, lineStarts, symbolTable, firstLine + from, to - from);
+    }
+
+    /**
+     * Makes the {@code Token}s of every line
+     */
+    public Token[][] toArrays() {
+        Token[][] lines = new Token[lineCount][];
+        for (int i = 0; i < lineCount; i++)
+            lines[i] = line(i);
+
+        return lines;
+    }
+
+    // the index of token i of a line in the arrays; reading past the end of a line fails rather than reading the next one
+    private int index(int line, int i) {
+        return lineStarts[firstLine + line] + Objects.checkIndex(i, length(line));
+    }
+
+    private Token token(int index) {
+        return new Token(kindValues[kinds[index]], symbolTable[symbols[index]], cols[index], lns[index]);
+    }
+}
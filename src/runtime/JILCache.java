@@ -0,0 +1,326 @@
+package runtime;
+
+import lexer.Token;
+import lexer.TokenStore;
+import lexer.TokenType;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.URISyntaxException;
+import java.nio.BufferUnderflowException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.CodeSource;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Keeps the lexed and prepared form of loaded files in {@code ~/jil/cache}, so running the same source again skips the front end
+ * <p>
+ * A {@code .jilc} file holds the imports and functions of a file in the order it defines them: each function's lines of tokens,
+ * its labels and its argument count. Every string it uses is written once to a table at the start of the file.
+ * Its name is a SHA-256 hash of the source and of the interpreter's classes, so an edited file or a rebuilt interpreter
+ * never reads a stale entry; entries that cannot be read are ignored and written again
+ */
+public final class JILCache {
+    // "JILC"
+    private static final int MAGIC = 0x4A494C43;
+    private static final int VERSION = 2;
+
+    private static final byte MODULE = 0;
+    private static final byte FUNCTION = 1;
+
+    /**
+     * An {@code import} of {@code module}, or the function {@code name}, defined by the line starting with {@code site}
+     */
+    record Item(Token site, String module, String name, int argc, TokenStore body, JILFunction.Prepared prepared) {
+        static Item module(Token site, String module) {
+            return new Item(site, module, null, 0, null, null);
+        }
+
+        static Item function(Token site, String name, int argc, TokenStore body, JILFunction.Prepared prepared) {
+            return new Item(site, null, name, argc, body, prepared);
+        }
+    }
+
+    private static final TokenType[] kindValues = TokenType.values();
+    private static String version = null;
+
+    private JILCache() {
+    }
+
+    public static File dir() {
+        return new File(System.getProperty("user.home") + File.separator + "jil" + File.separator + "cache");
+    }
+
+    /**
+     * When the classes of the interpreter were built, which is part of the key of every entry
+     */
+    private static synchronized String version() {
+        if (version != null)
+            return version;
+
+        long newest = 0;
+        try {
+            CodeSource source = JILCache.class.getProtectionDomain().getCodeSource();
+            File location = source != null ? new File(source.getLocation().toURI()) : null;
+
+            if (location != null && location.isFile()) {
+                newest = location.lastModified();
+            } else if (location != null) {
+                for (String pkg : new String[]{"lexer", "runtime"}) {
+                    File[] classes = new File(location, pkg).listFiles();
+                    if (classes == null)
+                        continue;
+
+                    for (File f : classes)
+                        newest = Math.max(newest, f.lastModified());
+                }
+            }
+        } catch (URISyntaxException | IllegalArgumentException | SecurityException ignored) {
+        }
+
+        version = VERSION + ":" + newest;
+        return version;
+    }
+
+    private static String key(String source) {
+        return hash(version(), source);
+    }
+
+    /**
+     * The SHA-256 hash of {@code parts}, each followed by a zero byte, in hex
+     */
+    static String hash(String... parts) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            for (String part : parts) {
+                digest.update(part.getBytes(StandardCharsets.UTF_8));
+                digest.update((byte) 0);
+            }
+
+            StringBuilder hex = new StringBuilder();
+            for (byte b : digest.digest())
+                hex.append(String.format("%02x", b));
+
+            return hex.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+    }
+
+    private static File entry(String key) {
+        return new File(dir(), key + ".jilc");
+    }
+
+    /**
+     * Reads the entry for {@code source}, returning {@code null} if there is none or it cannot be read
+     */
+    static List<Item> read(String source) {
+        String key = key(source);
+        File file = entry(key);
+        if (!file.isFile())
+            return null;
+
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            if (channel.size() > Integer.MAX_VALUE)
+                return null;
+
+            MappedByteBuffer in = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (in.getInt() != MAGIC || in.getInt() != VERSION)
+                return null;
+
+            String[] strings = new String[in.getInt()];
+            for (int i = 0; i < strings.length; i++) {
+                byte[] bytes = new byte[in.getInt()];
+                in.get(bytes);
+                // the lexer interns identifiers, so these are interned to match
+                strings[i] = new String(bytes, StandardCharsets.UTF_8).intern();
+            }
+
+            if (!strings[in.getInt()].equals(key))
+                return null;
+
+            ArrayList<Item> items = new ArrayList<>();
+            int count = in.getInt();
+            for (int i = 0; i < count; i++) {
+                byte kind = in.get();
+                Token site = readToken(in, strings);
+
+                if (kind == MODULE) {
+                    items.add(Item.module(site, strings[in.getInt()]));
+                    continue;
+                }
+
+                String name = strings[in.getInt()];
+                int argc = in.getInt();
+
+                TokenStore.Builder body = new TokenStore.Builder();
+                int lines = in.getInt();
+                for (int j = 0; j < lines; j++) {
+                    int ln = in.getInt();
+                    int length = in.getInt();
+                    for (int k = 0; k < length; k++)
+                        body.add(kindValues[in.get()], strings[in.getInt()], in.getInt(), ln);
+
+                    body.endLine();
+                }
+
+                HashMap<String, Integer> labels = new HashMap<>();
+                int labelCount = in.getInt();
+                for (int j = 0; j < labelCount; j++)
+                    labels.put(strings[in.getInt()], in.getInt());
+
+                JILFunction.Prepared prepared = in.get() == 0
+                        ? new JILFunction.Prepared(Map.copyOf(labels), -1, null)
+                        : new JILFunction.Prepared(Map.of(), in.getInt(), strings[in.getInt()]);
+                if (prepared.error() != null && (prepared.errorLine() < 0 || prepared.errorLine() >= lines))
+                    return null;
+
+                items.add(Item.function(site, name, argc, body.build(), prepared));
+            }
+
+            return items;
+        } catch (IOException | BufferUnderflowException | IndexOutOfBoundsException | NegativeArraySizeException e) {
+            return null;
+        }
+    }
+
+    private static Token readToken(MappedByteBuffer in, String[] strings) {
+        return new Token(kindValues[in.get()], strings[in.getInt()], in.getInt(), in.getInt());
+    }
+
+    /**
+     * Writes the entry for {@code source}; the cache is only an optimization, so failing to write it is not an error
+     */
+    static boolean write(String source, List<Item> items) {
+        String key = key(source);
+
+        HashMap<String, Integer> ids = new HashMap<>();
+        ArrayList<String> strings = new ArrayList<>();
+        int keyId = id(ids, strings, key);
+
+        for (Item item : items) {
+            id(ids, strings, item.site().content());
+            if (item.module() != null) {
+                id(ids, strings, item.module());
+                continue;
+            }
+
+            id(ids, strings, item.name());
+            TokenStore body = item.body();
+            for (int j = 0; j < body.lines(); j++) {
+                for (int k = 0; k < body.length(j); k++)
+                    id(ids, strings, body.content(j, k));
+            }
+
+            if (item.prepared().error() != null)
+                id(ids, strings, item.prepared().error());
+        }
+
+        File dir = dir();
+        if (!dir.isDirectory() && !dir.mkdirs())
+            return false;
+
+        Path tmp = null;
+        try {
+            tmp = Files.createTempFile(dir.toPath(), key, ".tmp");
+
+            try (OutputStream os = Files.newOutputStream(tmp); DataOutputStream out = new DataOutputStream(new BufferedOutputStream(os, 1 << 16))) {
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+
+                out.writeInt(strings.size());
+                for (String s : strings) {
+                    byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+                    out.writeInt(bytes.length);
+                    out.write(bytes);
+                }
+                out.writeInt(keyId);
+
+                out.writeInt(items.size());
+                for (Item item : items) {
+                    out.writeByte(item.module() != null ? MODULE : FUNCTION);
+                    writeToken(out, ids, item.site());
+
+                    if (item.module() != null) {
+                        out.writeInt(ids.get(item.module()));
+                        continue;
+                    }
+
+                    out.writeInt(ids.get(item.name()));
+                    out.writeInt(item.argc());
+
+                    TokenStore body = item.body();
+                    out.writeInt(body.lines());
+                    for (int j = 0; j < body.lines(); j++) {
+                        out.writeInt(body.ln(j, 0));
+                        out.writeInt(body.length(j));
+                        for (int k = 0; k < body.length(j); k++) {
+                            out.writeByte(body.kind(j, k).ordinal());
+                            out.writeInt(ids.get(body.content(j, k)));
+                            out.writeInt(body.col(j, k));
+                        }
+                    }
+
+                    Map<String, Integer> labels = item.prepared().labels();
+                    out.writeInt(labels.size());
+                    for (Map.Entry<String, Integer> label : labels.entrySet()) {
+                        out.writeInt(ids.get(label.getKey()));
+                        out.writeInt(label.getValue());
+                    }
+
+                    if (item.prepared().error() == null) {
+                        out.writeByte(0);
+                    } else {
+                        out.writeByte(1);
+                        out.writeInt(item.prepared().errorLine());
+                        out.writeInt(ids.get(item.prepared().error()));
+                    }
+                }
+            }
+
+            Files.move(tmp, entry(key).toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            return true;
+        } catch (IOException | SecurityException e) {
+            if (tmp != null) {
+                try {
+                    Files.deleteIfExists(tmp);
+                } catch (IOException ignored) {
+                }
+            }
+
+            return false;
+        }
+    }
+
+    private static int id(HashMap<String, Integer> ids, ArrayList<String> strings, String s) {
+        Integer id = ids.get(s);
+        if (id == null) {
+            id = strings.size();
+            ids.put(s, id);
+            strings.add(s);
+        }
+
+        return id;
+    }
+
+    private static void writeToken(DataOutputStream out, HashMap<String, Integer> ids, Token t) throws IOException {
+        out.writeByte(t.kind().ordinal());
+        out.writeInt(ids.get(t.content()));
+        out.writeInt(t.col());
+        out.writeInt(t.ln());
+    }
+}
@@ -0,0 +1,441 @@
+package runtime;
+
+import lexer.TokenStore;
+import lexer.TokenType;
+import runtime.errors.JILException;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+
+/**
+ * Compiles the token lines of a function body into a {@code runtime.JILProgram}
+ * <p>
+ * Lines that would fail when executed are compiled into a {@code THROW} of the same error,
+ * so a function only fails once the offending line is actually reached, like it does on the token path
+ */
+public final class JILCompiler implements JILExpr.Slots {
+    private final TokenStore lines;
+    private final Map<String, Integer> labels;
+    private final int[] linePcs;
+
+    private int[] code;
+    // the line each instruction comes from, which its errors are located at
+    private int[] sites;
+    private int size;
+
+    private final ArrayList<int[]> fixups;
+    private final HashMap<String, Integer> nameIndexes;
+    private final ArrayList<String> names;
+    private final ArrayList<String> strings;
+    private final ArrayList<JILExpr> exprs;
+
+    private final HashSet<String> boxedNames;
+    private final HashMap<String, Integer> slotIndexes;
+    private final ArrayList<String> slotNames;
+
+    private JILCompiler(TokenStore lines, Map<String, Integer> labels) {
+        this.lines = lines;
+        this.labels = labels;
+        linePcs = new int[lines.lines() + 1];
+
+        code = new int[lines.lines() * 4 + 4];
+        sites = new int[code.length];
+        size = 0;
+
+        fixups = new ArrayList<>();
+        nameIndexes = new HashMap<>();
+        names = new ArrayList<>();
+        strings = new ArrayList<>();
+        exprs = new ArrayList<>();
+
+        boxedNames = new HashSet<>();
+        slotIndexes = new HashMap<>();
+        slotNames = new ArrayList<>();
+    }
+
+    public static JILProgram compile(TokenStore lines, JILFunction.Prepared prepared) {
+        return new JILCompiler(lines, prepared.labels()).compile(prepared);
+    }
+
+    private JILProgram compile(JILFunction.Prepared prepared) {
+        if (prepared.error() != null) {
+            emitThrow(prepared.errorLine(), prepared.error());
+            return finish();
+        }
+
+        findBoxed();
+
+        for (int i = 0; i < lines.lines(); i++) {
+            linePcs[i] = size;
+
+            try {
+                if (fuse(i)) {
+                    linePcs[++i] = size;
+                    continue;
+                }
+
+                compileLine(i, lines.range(i, 0));
+            } catch (JILException e) {
+                emitThrow(i, e.getMessage());
+            }
+        }
+        linePcs[lines.lines()] = size;
+
+        for (int[] fixup : fixups)
+            code[fixup[0]] = linePcs[Math.min(fixup[1], lines.lines())];
+
+        return finish();
+    }
+
+    private JILProgram finish() {
+        boolean[] slotBoxed = new boolean[slotNames.size()];
+        int params = 0;
+        for (int i = 0; i < slotBoxed.length; i++) {
+            slotBoxed[i] = boxed(i);
+            params = Math.max(params, paramIndex(slotNames.get(i)) + 1);
+        }
+
+        int[] paramSlots = new int[params];
+        Arrays.fill(paramSlots, -1);
+        for (int i = 0; i < slotBoxed.length; i++) {
+            if (paramIndex(slotNames.get(i)) >= 0)
+                paramSlots[paramIndex(slotNames.get(i))] = i;
+        }
+
+        return new JILProgram(
+                Arrays.copyOf(code, size),
+                lines,
+                Arrays.copyOf(sites, size),
+                names.toArray(new String[0]),
+                strings.toArray(new String[0]),
+                exprs.toArray(new JILExpr[0]),
+                slotNames.toArray(new String[0]),
+                slotBoxed,
+                paramSlots);
+    }
+
+    private static int paramIndex(String name) {
+        if (name.length() < 2 || name.charAt(0) != '$')
+            return -1;
+
+        for (int i = 1; i < name.length(); i++) {
+            if (name.charAt(i) < '0' || name.charAt(i) > '9')
+                return -1;
+        }
+
+        try {
+            return Integer.parseInt(name.substring(1));
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * Finds the variables whose raw value can be observed, either because it is read or written as a raw value
+     * or passed to a function as a pointer; these keep a cell in {@code runtime.JILMemory}, while every other variable
+     * lives only in its frame slot
+     */
+    private void findBoxed() {
+        for (int i = 0; i < lines.lines(); i++) {
+            TokenStore.Range tl = lines.range(i, 0);
+            if (!tl.is(0, TokenType.Ident))
+                continue;
+
+            String op = tl.content(0);
+            switch (op) {
+                case "def", "defp", "set", "setp" -> {
+                    if (tl.length() < 3)
+                        continue;
+
+                    if (op.endsWith("p") || (tl.is(2, TokenType.String) && tl.length() == 3))
+                        boxedNames.add(tl.content(1));
+                    if (op.endsWith("p"))
+                        boxAll(tl, 2);
+                }
+                case "call" -> {
+                    if (tl.length() >= 4 && (tl.is(1, "into") || tl.is(1, "intop"))) {
+                        if (tl.is(1, "intop"))
+                            boxedNames.add(tl.content(2));
+                        boxAll(tl, 4);
+                    } else {
+                        boxAll(tl, 2);
+                    }
+                }
+                case "retp", "ifp", "ifnp" -> boxAll(tl, 1);
+            }
+        }
+    }
+
+    private void boxAll(TokenStore.Range tl, int from) {
+        for (int i = from; i < tl.length(); i++)
+            boxedNames.add(tl.content(i));
+    }
+
+    @Override
+    public int slot(String name) {
+        Integer idx = slotIndexes.get(name);
+        if (idx == null) {
+            idx = slotNames.size();
+            slotNames.add(name);
+            slotIndexes.put(name, idx);
+        }
+
+        return idx;
+    }
+
+    @Override
+    public boolean boxed(int slot) {
+        return boxedNames.contains(slotNames.get(slot));
+    }
+
+    private void compileLine(int ln, TokenStore.Range tl) throws JILException {
+        JILInterpreter.TokenChecker tc = new JILInterpreter.TokenChecker(tl);
+        int site = ln;
+        String op = tl.content(0);
+
+        if (tl.is(0, TokenType.String)) {
+            emitThrow(site, "unexpected string");
+            return;
+        }
+
+        switch (op) {
+            case "rem", "lbl" -> {}
+            case "goto" -> {
+                String res = tc.checkSingle();
+                if (res != null) {
+                    emitThrow(site, res);
+                } else if (!labels.containsKey(tl.content(1))) {
+                    emitThrow(site, "unknown label '" + tl.content(1) + "'");
+                } else {
+                    emit(site, JILProgram.GOTO, 0);
+                    fixup(size - 1, labels.get(tl.content(1)));
+                }
+            }
+            case "import" -> emitThrow(site, "cannot import a module inside of a function");
+            case "fun" -> emitThrow(site, "cannot define a function inside of a function");
+            case "struct" -> emitThrow(site, "cannot define a struct inside of a function");
+            case "def", "defp", "set", "setp" -> {
+                String res = tc.check(1, JILInterpreter.TokenChecker.TMatcher.any());
+                if (res != null) {
+                    emitThrow(site, res);
+                    return;
+                }
+
+                if (tl.length() == 2) {
+                    emitThrow(site, "expected expression, but found EOL instead");
+                    return;
+                }
+
+                boolean define = op.startsWith("def");
+                boolean raw = op.endsWith("p");
+                int var = slot(tl.content(1));
+
+                if (tl.is(2, TokenType.String) && tl.length() == 3) {
+                    emit(site, define ? JILProgram.DEFS : JILProgram.SETS, var, string(tl.content(2)));
+                    return;
+                }
+
+                JILExpr e = compileExpr(tl, 2, raw);
+                boolean direct = raw || !boxed(var);
+                int[] offset = define ? null : e.offset();
+                if (offset != null && offset[0] == (direct ? var : ~var)) {
+                    emit(site, direct ? JILProgram.INC : JILProgram.INC_BOXED, var, offset[1]);
+                } else if (raw) {
+                    emit(site, define ? JILProgram.DEFP : JILProgram.SETP, var, addExpr(e));
+                } else if (boxed(var)) {
+                    emit(site, define ? JILProgram.DEF : JILProgram.SET, var, addExpr(e));
+                } else {
+                    emit(site, define ? JILProgram.DEF_LOCAL : JILProgram.SET_LOCAL, var, addExpr(e));
+                }
+            }
+            case "call" -> emit(site, call(tl));
+            case "ret", "retp" -> {
+                if (tl.length() == 1)
+                    emitThrow(site, "expected expression, but found EOL instead");
+                else
+                    emit(site, JILProgram.RET, expr(tl, 1, op.endsWith("p")));
+            }
+            case "if", "ifn", "ifp", "ifnp" -> {
+                if (tl.length() == 1) {
+                    emitThrow(site, "expected expression, but found EOL instead");
+                    return;
+                }
+
+                JILExpr e = compileExpr(tl, 1, op.contains("p"));
+                int[] cmp = e.comparison();
+                if (cmp != null) {
+                    // jumps over the next line when the condition does not hold
+                    int test = op.contains("n") ? cmp[0] : JILExpr.negate(cmp[0]);
+                    emit(site, cmp[3] == 1 ? JILProgram.JMP_CMPK : JILProgram.JMP_CMP, test, cmp[1], cmp[2], 0);
+                } else {
+                    emit(site, op.contains("n") ? JILProgram.JMPNZ : JILProgram.JMPZ, addExpr(e), 0);
+                }
+                fixup(size - 1, ln + 2);
+            }
+            case "catch" -> {
+                String res = tc.checkSingle();
+                if (res != null) {
+                    emitThrow(site, res);
+                } else if (!labels.containsKey(tl.content(1))) {
+                    emitThrow(site, "unknown label '" + tl.content(1) + "'");
+                } else {
+                    emit(site, JILProgram.CATCH, name(tl.content(1)), 0);
+                    fixup(size - 1, labels.get(tl.content(1)));
+                }
+            }
+            case "endcatch" -> emit(site, JILProgram.ENDCATCH);
+            case "endcatches" -> emit(site, JILProgram.ENDCATCHES);
+            default -> emitThrow(site, String.format("unexpected token '%s'", op));
+        }
+    }
+
+    /**
+     * Compiles a 'call' line into a {@code CALL} instruction
+     */
+    private int[] call(TokenStore.Range tl) throws JILException {
+        JILInterpreter.TokenChecker tc = new JILInterpreter.TokenChecker(tl);
+        String res = tc.checkAll(1, 4, JILInterpreter.TokenChecker.TMatcher.opt("into", "intop"), JILInterpreter.TokenChecker.TMatcher.any(), JILInterpreter.TokenChecker.TMatcher.any());
+
+        int argOffset;
+        int func;
+        int out = -1;
+        int outMode = JILProgram.OUT_NONE;
+        if (res == null) {
+            if (tl.length() < 4)
+                throw new JILException(tc.check(tl.length(), JILInterpreter.TokenChecker.TMatcher.any()));
+
+            func = name(tl.content(3));
+            out = slot(tl.content(2));
+            if (tl.content(1).endsWith("p"))
+                outMode = JILProgram.OUT_INTOP;
+            else
+                outMode = boxed(out) ? JILProgram.OUT_INTO : JILProgram.OUT_INTO_LOCAL;
+            argOffset = 4;
+        } else {
+            func = name(tl.content(1));
+            argOffset = 2;
+        }
+
+        int[] instr = new int[5 + tl.length() - argOffset];
+        instr[0] = JILProgram.CALL;
+        instr[1] = func;
+        instr[2] = out;
+        instr[3] = outMode;
+        instr[4] = tl.length() - argOffset;
+        for (int i = argOffset; i < tl.length(); i++)
+            instr[5 + i - argOffset] = slot(tl.content(i));
+
+        return instr;
+    }
+
+    private static boolean isConditional(TokenStore.Range tl) {
+        return tl.is(0, TokenType.Ident) && switch (tl.content(0)) {
+            case "if", "ifn", "ifp", "ifnp" -> true;
+            default -> false;
+        };
+    }
+
+    /**
+     * Compiles the line {@code ln} together with the line after it into one superinstruction if they form
+     * an 'if' followed by a 'goto' or a 'call'
+     * <p>
+     * The second line then has no instruction of its own, so nothing may jump to it: lines are only fused
+     * when the line before them is not a conditional, whose jump would land on the second line
+     *
+     * @return whether the two lines were fused
+     */
+    private boolean fuse(int ln) throws JILException {
+        TokenStore.Range tl = lines.range(ln, 0);
+        if (ln + 1 >= lines.lines() || tl.length() < 2 || !isConditional(tl) || (ln > 0 && isConditional(lines.range(ln - 1, 0))))
+            return false;
+
+        int site = ln;
+        TokenStore.Range next = lines.range(ln + 1, 0);
+        boolean negated = tl.content(0).contains("n");
+        boolean raw = tl.content(0).contains("p");
+
+        if (next.is(0, "goto")) {
+            if (new JILInterpreter.TokenChecker(next).checkSingle() != null || !labels.containsKey(next.content(1)))
+                return false;
+
+            JILExpr e = compileExpr(tl, 1, raw);
+            int[] cmp = e.comparison();
+            if (cmp != null) {
+                emit(site, cmp[3] == 1 ? JILProgram.JMP_CMPK : JILProgram.JMP_CMP, negated ? JILExpr.negate(cmp[0]) : cmp[0], cmp[1], cmp[2], 0);
+            } else {
+                emit(site, negated ? JILProgram.JMPZ : JILProgram.JMPNZ, addExpr(e), 0);
+            }
+            fixup(size - 1, labels.get(next.content(1)));
+            return true;
+        } else if (next.is(0, "call")) {
+            int[] instr;
+            try {
+                instr = call(next);
+            } catch (JILException e) {
+                return false;
+            }
+
+            JILExpr e = compileExpr(tl, 1, raw);
+            instr = Arrays.copyOf(instr, instr.length + 1);
+            instr[0] = negated ? JILProgram.CALL_IFN : JILProgram.CALL_IF;
+            instr[instr.length - 1] = addExpr(e);
+            emit(ln + 1, instr);
+            // errors from the condition are located at the 'if'
+            sites[size - 1] = site;
+            return true;
+        }
+
+        return false;
+    }
+
+    private void emit(int site, int... instr) {
+        if (size + instr.length > code.length) {
+            code = Arrays.copyOf(code, Math.max(code.length * 2, size + instr.length));
+            sites = Arrays.copyOf(sites, code.length);
+        }
+
+        sites[size] = site;
+        System.arraycopy(instr, 0, code, size, instr.length);
+        size += instr.length;
+    }
+
+    private void emitThrow(int site, String message) {
+        emit(site, JILProgram.THROW, string(message));
+    }
+
+    private void fixup(int at, int line) {
+        fixups.add(new int[]{at, line});
+    }
+
+    private int name(String name) {
+        Integer idx = nameIndexes.get(name);
+        if (idx == null) {
+            idx = names.size();
+            names.add(name);
+            nameIndexes.put(name, idx);
+        }
+
+        return idx;
+    }
+
+    private int string(String str) {
+        strings.add(str);
+        return strings.size() - 1;
+    }
+
+    private int expr(TokenStore.Range tl, int from, boolean raw) throws JILException {
+        return addExpr(compileExpr(tl, from, raw));
+    }
+
+    private JILExpr compileExpr(TokenStore.Range tl, int from, boolean raw) throws JILException {
+        return JILExpr.compile(tl.from(from), raw, this);
+    }
+
+    private int addExpr(JILExpr e) {
+        exprs.add(e);
+        return exprs.size() - 1;
+    }
+}
@@ -0,0 +1,114 @@
+package runtime;
+
+import runtime.errors.JILException;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Compiles JIL files into {@code runtime.JILScript}s for programs that embed JIL, keeping the most recently used ones
+ * <p>
+ * An engine can be shared between threads. Compiling a source that is already cached returns the same script,
+ * and the least recently used script is dropped once more than {@code capacity} are cached
+ */
+public final class JILEngine {
+    public static final int DEFAULT_CAPACITY = 64;
+
+    // a hash of the source rather than the source itself, so the cache does not keep every file it has compiled alive
+    private record Key(String name, String hash) {
+    }
+
+    private final int capacity;
+    private final boolean compile, tiering, verify;
+    // in access order, so the first entry is the least recently used
+    private final LinkedHashMap<Key, JILScript> scripts;
+    private long hits, misses;
+
+    public JILEngine() {
+        this(DEFAULT_CAPACITY, true, true, true);
+    }
+
+    /**
+     * @param compile whether functions are compiled to a {@code runtime.JILProgram} or run on the token path
+     * @param tiering whether hot functions are compiled to JVM bytecode
+     * @param verify  whether every function is checked with {@code runtime.JILVerifier} when the script is compiled
+     */
+    public JILEngine(int capacity, boolean compile, boolean tiering, boolean verify) {
+        if (capacity < 1)
+            throw new IllegalArgumentException("the capacity of an engine must be at least 1, but was " + capacity);
+
+        this.capacity = capacity;
+        this.compile = compile;
+        this.tiering = tiering;
+        this.verify = verify;
+        scripts = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Key, JILScript> eldest) {
+                return size() > JILEngine.this.capacity;
+            }
+        };
+    }
+
+    /**
+     * Compiles {@code source}, or returns the script already compiled from it
+     *
+     * @param name the file name errors are reported against
+     */
+    public JILScript compile(String name, String source) throws JILException {
+        Key key = new Key(name, JILCache.hash(source));
+
+        synchronized (scripts) {
+            JILScript script = scripts.get(key);
+            if (script != null) {
+                hits++;
+                return script;
+            }
+            misses++;
+        }
+
+        // compiled outside of the lock, so one large file does not hold up every other thread; if two threads compile
+        // the same source at once, the first to finish is kept
+        JILInterpreter loader = new JILInterpreter(new JILMemory(0), new HashMap<>());
+        loader.setCompile(compile);
+        loader.setTiering(tiering);
+        loader.execute(name, 0, false, source);
+        if (verify)
+            loader.verify();
+
+        JILScript script = new JILScript(name, loader.getFuncs());
+
+        synchronized (scripts) {
+            JILScript raced = scripts.putIfAbsent(key, script);
+            return raced != null ? raced : script;
+        }
+    }
+
+    /**
+     * Compiles {@code source} and runs it in {@code memory}
+     */
+    public int run(String name, String source, JILMemory memory, int... args) throws JILException {
+        return compile(name, source).run(memory, args);
+    }
+
+    public int cached() {
+        synchronized (scripts) {
+            return scripts.size();
+        }
+    }
+
+    /**
+     * How many calls to {@code compile} found their script cached, and how many did not
+     */
+    public long[] cacheStats() {
+        synchronized (scripts) {
+            return new long[]{hits, misses};
+        }
+    }
+
+    public void clear() {
+        synchronized (scripts) {
+            scripts.clear();
+        }
+    }
+}
@@ -0,0 +1,336 @@
+package runtime;
+
+import lexer.Token;
+import lexer.TokenStore;
+import lexer.TokenType;
+import runtime.errors.JILException;
+
+import java.util.Arrays;
+
+/**
+ * An expression compiled from its postfix tokens into a flat program of opcodes and operands
+ * <p>
+ * Operand counts are checked when the expression is compiled, so evaluation only has to run
+ * the program against a caller-provided {@code int[]} stack of at least {@link #depth()} elements
+ */
+public final class JILExpr {
+    static final int PUSH = 0;
+    static final int LOAD = 1;
+    static final int LOAD_RAW = 2;
+    static final int ADD = 3;
+    static final int SUB = 4;
+    static final int MUL = 5;
+    static final int DIV = 6;
+    static final int MOD = 7;
+    static final int POW = 8;
+    static final int AND = 9;
+    static final int OR = 10;
+    static final int EQ = 11;
+    static final int NE = 12;
+    static final int GT = 13;
+    static final int GE = 14;
+    static final int LT = 15;
+    static final int LE = 16;
+    static final int NOT = 17;
+    static final int LOAD_SLOT = 18;
+    static final int LOAD_BOXED = 19;
+
+    private static final String[] opNames = {"push", "load", "loadp", "+", "-", "*", "/", "%", "**", "and", "or", "=", "!=", ">", ">=", "<", "<=", "!", "slot", "boxed"};
+
+    /**
+     * Resolves variable names to the frame slots assigned by {@code runtime.JILCompiler}
+     */
+    interface Slots {
+        int slot(String name);
+
+        boolean boxed(int slot);
+    }
+
+    // pairs of opcode and operand
+    private final int[] code;
+    private final String[] names;
+    private final int depth;
+
+    private JILExpr(int[] code, String[] names, int depth) {
+        this.code = code;
+        this.names = names;
+        this.depth = depth;
+    }
+
+    public static JILExpr compile(Token[] tokens, boolean rawMode) throws JILException {
+        return compile(TokenStore.of(new Token[][]{tokens}).range(0, 0), rawMode, null);
+    }
+
+    /**
+     * Compiles the tokens of line {@code line} of {@code tokens} from {@code from} onwards, reading them in place
+     */
+    public static JILExpr compile(TokenStore tokens, int line, int from, boolean rawMode) throws JILException {
+        return compile(tokens.range(line, from), rawMode, null);
+    }
+
+    static JILExpr compile(TokenStore.Range tokens, boolean rawMode, Slots slots) throws JILException {
+        int length = tokens.length();
+        int[] code = new int[length * 2];
+        String[] names = new String[length];
+        int nameCount = 0;
+        int size = 0;
+        int depth = 0;
+        int maxDepth = 0;
+
+        for (int i = 0; i < length; i++) {
+            if (tokens.is(i, TokenType.String))
+                throw new JILException("cannot use strings in expressions");
+
+            String content = tokens.content(i);
+            int op = operator(content);
+            int operand = 0;
+
+            if (op == -1) {
+                if (isLiteral(content)) {
+                    try {
+                        operand = Integer.parseInt(content);
+                        op = PUSH;
+                    } catch (NumberFormatException ignored) {
+                    }
+                }
+
+                if (op == -1 && slots != null) {
+                    operand = slots.slot(content);
+                    op = !rawMode && slots.boxed(operand) ? LOAD_BOXED : LOAD_SLOT;
+                } else if (op == -1) {
+                    op = rawMode ? LOAD_RAW : LOAD;
+                    operand = nameCount;
+                    names[nameCount++] = content;
+                }
+
+                depth++;
+            } else if (op == NOT) {
+                if (depth < 1)
+                    throw new JILException("expected one operand on the stack for '" + content + "', but found " + depth + " instead");
+            } else {
+                if (depth < 2)
+                    throw new JILException("expected one operands on the stack for '" + content + "', but found " + depth + " instead");
+                depth--;
+            }
+
+            maxDepth = Math.max(maxDepth, depth);
+            code[size++] = op;
+            code[size++] = operand;
+        }
+
+        if (depth == 0)
+            throw new JILException("the stack cannot be empty at the end of expression evaluation");
+
+        return new JILExpr(Arrays.copyOf(code, size), Arrays.copyOf(names, nameCount), maxDepth);
+    }
+
+    private static int operator(String content) {
+        return switch (content) {
+            case "+" -> ADD;
+            case "-" -> SUB;
+            case "*" -> MUL;
+            case "/" -> DIV;
+            case "%" -> MOD;
+            case "**" -> POW;
+            case "and" -> AND;
+            case "or" -> OR;
+            case "=" -> EQ;
+            case "!=" -> NE;
+            case ">" -> GT;
+            case ">=" -> GE;
+            case "<" -> LT;
+            case "<=" -> LE;
+            case "!" -> NOT;
+            default -> -1;
+        };
+    }
+
+    private static boolean isLiteral(String content) {
+        int start = content.startsWith("-") || content.startsWith("+") ? 1 : 0;
+        if (start == content.length())
+            return false;
+
+        for (int i = start; i < content.length(); i++) {
+            if (Character.digit(content.charAt(i), 10) < 0)
+                return false;
+        }
+
+        return true;
+    }
+
+    // the operand reference of the load at code[i], as used by JILProgram.JMP_CMP, or NO_OPERAND if it is not a slot load
+    private static final int NO_OPERAND = Integer.MIN_VALUE;
+
+    private int operand(int i) {
+        return switch (code[i]) {
+            case LOAD_SLOT -> code[i + 1];
+            case LOAD_BOXED -> ~code[i + 1];
+            default -> NO_OPERAND;
+        };
+    }
+
+    /**
+     * If this expression is a variable plus or minus a literal, returns the variable as an operand reference and the amount added;
+     * otherwise {@code null}
+     */
+    int[] offset() {
+        if (code.length != 6 || (code[4] != ADD && code[4] != SUB))
+            return null;
+
+        if (operand(0) != NO_OPERAND && code[2] == PUSH)
+            return new int[]{operand(0), code[4] == ADD ? code[3] : -code[3]};
+        else if (code[0] == PUSH && code[4] == ADD && operand(2) != NO_OPERAND)
+            return new int[]{operand(2), code[1]};
+
+        return null;
+    }
+
+    /**
+     * If this expression compares a variable against a variable or a literal, or is a single variable, returns the comparison,
+     * the left operand reference, the right operand reference or literal, and 1 if the right side is a literal; otherwise {@code null}
+     */
+    int[] comparison() {
+        if (code.length == 2 && operand(0) != NO_OPERAND)
+            return new int[]{NE, operand(0), 0, 1};
+        else if (code.length != 6 || code[4] < EQ || code[4] > LE || operand(0) == NO_OPERAND)
+            return null;
+
+        if (code[2] == PUSH)
+            return new int[]{code[4], operand(0), code[3], 1};
+        else if (operand(2) != NO_OPERAND)
+            return new int[]{code[4], operand(0), operand(2), 0};
+
+        return null;
+    }
+
+    static boolean compare(int cmp, int a, int b) {
+        return switch (cmp) {
+            case EQ -> a == b;
+            case NE -> a != b;
+            case GT -> a > b;
+            case GE -> a >= b;
+            case LT -> a < b;
+            default -> a <= b;
+        };
+    }
+
+    static int negate(int cmp) {
+        return switch (cmp) {
+            case EQ -> NE;
+            case NE -> EQ;
+            case GT -> LE;
+            case GE -> LT;
+            case LT -> GE;
+            default -> GT;
+        };
+    }
+
+    /**
+     * The pairs of opcode and operand this expression runs, for {@code runtime.JILTierCompiler}
+     */
+    int[] code() {
+        return code;
+    }
+
+    /**
+     * The amount of stack slots needed to evaluate this expression
+     */
+    public int depth() {
+        return depth;
+    }
+
+    /**
+     * @param frame the frame of the compiled function this expression belongs to, or {@code null} for expressions compiled from names
+     */
+    public int eval(JILInterpreter interpreter, JILFrame frame, int[] stack) throws JILException {
+        int sp = 0;
+
+        for (int pc = 0; pc < code.length; pc += 2) {
+            switch (code[pc]) {
+                case PUSH -> stack[sp++] = code[pc + 1];
+                case LOAD -> stack[sp++] = interpreter.getVar(names[code[pc + 1]]);
+                case LOAD_RAW -> stack[sp++] = interpreter.getRawVar(names[code[pc + 1]]);
+                case LOAD_SLOT -> stack[sp++] = frame.get(code[pc + 1]);
+                case LOAD_BOXED -> stack[sp++] = interpreter.memory().deref(frame.get(code[pc + 1]));
+                case ADD -> {
+                    sp--;
+                    stack[sp - 1] += stack[sp];
+                }
+                case SUB -> {
+                    sp--;
+                    stack[sp - 1] -= stack[sp];
+                }
+                case MUL -> {
+                    sp--;
+                    stack[sp - 1] *= stack[sp];
+                }
+                case DIV -> {
+                    sp--;
+                    stack[sp - 1] /= stack[sp];
+                }
+                case MOD -> {
+                    sp--;
+                    stack[sp - 1] %= stack[sp];
+                }
+                case POW -> {
+                    sp--;
+                    stack[sp - 1] = (int) Math.pow(stack[sp - 1], stack[sp]);
+                }
+                case AND -> {
+                    sp--;
+                    stack[sp - 1] = stack[sp - 1] != 0 && stack[sp] != 0 ? 1 : 0;
+                }
+                case OR -> {
+                    sp--;
+                    stack[sp - 1] = stack[sp - 1] != 0 || stack[sp] != 0 ? 1 : 0;
+                }
+                case EQ -> {
+                    sp--;
+                    stack[sp - 1] = stack[sp - 1] == stack[sp] ? 1 : 0;
+                }
+                case NE -> {
+                    sp--;
+                    stack[sp - 1] = stack[sp - 1] != stack[sp] ? 1 : 0;
+                }
+                case GT -> {
+                    sp--;
+                    stack[sp - 1] = stack[sp - 1] > stack[sp] ? 1 : 0;
+                }
+                case GE -> {
+                    sp--;
+                    stack[sp - 1] = stack[sp - 1] >= stack[sp] ? 1 : 0;
+                }
+                case LT -> {
+                    sp--;
+                    stack[sp - 1] = stack[sp - 1] < stack[sp] ? 1 : 0;
+                }
+                case LE -> {
+                    sp--;
+                    stack[sp - 1] = stack[sp - 1] <= stack[sp] ? 1 : 0;
+                }
+                case NOT -> stack[sp - 1] = stack[sp - 1] == 0 ? 1 : 0;
+            }
+        }
+
+        return stack[sp - 1];
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder str = new StringBuilder();
+
+        for (int pc = 0; pc < code.length; pc += 2) {
+            if (pc > 0)
+                str.append(' ');
+
+            switch (code[pc]) {
+                case PUSH -> str.append(code[pc + 1]);
+                case LOAD, LOAD_RAW -> str.append(opNames[code[pc]]).append(':').append(names[code[pc + 1]]);
+                case LOAD_SLOT, LOAD_BOXED -> str.append(opNames[code[pc]]).append(':').append(code[pc + 1]);
+                default -> str.append(opNames[code[pc]]);
+            }
+        }
+
+        return str.toString();
+    }
+}
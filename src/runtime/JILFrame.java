@@ -0,0 +1,118 @@
+package runtime;
+
+import runtime.errors.JILException;
+
+import java.util.Arrays;
+
+/**
+ * One call to a compiled function on an interpreter's frame stack
+ * <p>
+ * Variables are stored in the slots the compiler assigned to them. Local slots hold a variable's value directly;
+ * boxed slots hold the variable's raw value, which for {@code def} and {@code set} is a pointer to a cell in {@code runtime.JILMemory}
+ * <p>
+ * Frames are reused by later calls once they are popped, so their arrays only ever grow
+ */
+public final class JILFrame {
+    JILProgram program;
+    String file;
+    int showVars;
+    // the instruction the frame is currently at; for frames below the top this is the call being waited on
+    int pc;
+    // where the cells the interpreter boxed for this call start in its list of owned cells
+    int mark;
+
+    String[] names;
+    boolean[] boxed;
+    int[] slots;
+    boolean[] defined;
+
+    // pairs of catch label and target
+    int[] catchers;
+    int catchDepth;
+
+    JILFrame() {
+        slots = new int[8];
+        defined = new boolean[8];
+        catchers = new int[8];
+    }
+
+    void reset(JILProgram program, String file, int showVars) {
+        this.program = program;
+        this.file = file;
+        this.showVars = showVars;
+        pc = 0;
+
+        names = program.slotNames;
+        boxed = program.slotBoxed;
+        if (slots.length < names.length) {
+            slots = new int[names.length];
+            defined = new boolean[names.length];
+        } else {
+            Arrays.fill(defined, 0, names.length, false);
+        }
+
+        catchDepth = 0;
+    }
+
+    int get(int slot) throws JILException {
+        if (!defined[slot])
+            throw new JILException("variable '" + names[slot] + "' does not exist");
+
+        return slots[slot];
+    }
+
+    void define(int slot, int val) throws JILException {
+        if (defined[slot])
+            throw new JILException(String.format("cannot redefine existing variable '%s'", names[slot]));
+
+        slots[slot] = val;
+        defined[slot] = true;
+    }
+
+    void set(int slot, int val) throws JILException {
+        if (!defined[slot])
+            throw new JILException("variable '" + names[slot] + "' does not exist");
+
+        slots[slot] = val;
+    }
+
+    void put(int slot, int val) {
+        slots[slot] = val;
+        defined[slot] = true;
+    }
+
+    void pushCatcher(int label, int target) throws JILException {
+        for (int i = 0; i < catchDepth; i++) {
+            if (catchers[i * 2] == label)
+                throw new JILException("already in a catch scope with the label '" + program.names[label] + "'");
+        }
+
+        if (catchDepth * 2 == catchers.length)
+            catchers = Arrays.copyOf(catchers, catchers.length * 2);
+
+        catchers[catchDepth * 2] = label;
+        catchers[catchDepth * 2 + 1] = target;
+        catchDepth++;
+    }
+
+    int popCatcher() {
+        catchDepth--;
+        return catchers[catchDepth * 2 + 1];
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder str = new StringBuilder("{");
+
+        for (int i = 0; i < names.length; i++) {
+            if (!defined[i])
+                continue;
+
+            if (str.length() > 1)
+                str.append(", ");
+            str.append(names[i]).append('=').append(slots[i]);
+        }
+
+        return str.append('}').toString();
+    }
+}
@@ -0,0 +1,280 @@
+package runtime;
+
+import java.util.Arrays;
+
+/**
+ * Places allocations in the cells of a {@code runtime.JILMemory} using segregated free lists
+ * <p>
+ * Memory is split into blocks, each either free or handed out to one allocation. Blocks are kept in a table and linked to their physical neighbours,
+ * so a released block is merged with free neighbours straight away, and the table only grows with the number of blocks rather than the size of memory.
+ * Free blocks are also kept in one doubly linked list per power of two size class, so {@code allocate} and {@code release} never search the whole memory.
+ * Blocks never move once they are handed out
+ */
+final class JILFreeList {
+    private static final int CLASSES = 64;
+    // how many blocks of the exact size class are checked before falling back to a larger class
+    private static final int FIT_SEARCH = 4;
+
+    private long[] starts;
+    private long[] sizes;
+    private boolean[] free;
+    // physical neighbours
+    private int[] before;
+    private int[] after;
+    // neighbours in the block's free list
+    private int[] next;
+    private int[] prev;
+    private int blockCount;
+    // table entries of merged away blocks, reused before new ones
+    private int[] unused;
+    private int unusedCount;
+
+    private final int[] lists;
+    private long nonEmpty;
+
+    // the block that ends at the end of memory, or -1 if memory is empty
+    private int last;
+    private long capacity;
+
+    JILFreeList(long size) {
+        starts = new long[16];
+        sizes = new long[16];
+        free = new boolean[16];
+        before = new int[16];
+        after = new int[16];
+        next = new int[16];
+        prev = new int[16];
+        blockCount = 0;
+        unused = new int[16];
+        unusedCount = 0;
+
+        lists = new int[CLASSES];
+        Arrays.fill(lists, -1);
+        nonEmpty = 0;
+
+        last = -1;
+        capacity = 0;
+        grow(size);
+    }
+
+    private static int sizeClass(long size) {
+        return 63 - Long.numberOfLeadingZeros(size);
+    }
+
+    long start(int block) {
+        return starts[block];
+    }
+
+    private int newBlock(long start, long size, int physBefore, int physAfter) {
+        int b;
+        if (unusedCount > 0) {
+            b = unused[--unusedCount];
+        } else {
+            if (blockCount == starts.length) {
+                int length = starts.length * 2;
+                starts = Arrays.copyOf(starts, length);
+                sizes = Arrays.copyOf(sizes, length);
+                free = Arrays.copyOf(free, length);
+                before = Arrays.copyOf(before, length);
+                after = Arrays.copyOf(after, length);
+                next = Arrays.copyOf(next, length);
+                prev = Arrays.copyOf(prev, length);
+            }
+            b = blockCount++;
+        }
+
+        starts[b] = start;
+        sizes[b] = size;
+        free[b] = false;
+        before[b] = physBefore;
+        after[b] = physAfter;
+        if (physBefore != -1)
+            after[physBefore] = b;
+        if (physAfter != -1)
+            before[physAfter] = b;
+        else
+            last = b;
+
+        return b;
+    }
+
+    // unlinks a block that has been merged into its physical predecessor
+    private void dropBlock(int b) {
+        after[before[b]] = after[b];
+        if (after[b] != -1)
+            before[after[b]] = before[b];
+        else
+            last = before[b];
+
+        if (unusedCount == unused.length)
+            unused = Arrays.copyOf(unused, unused.length * 2);
+        unused[unusedCount++] = b;
+    }
+
+    private void insert(int b) {
+        int c = sizeClass(sizes[b]);
+        free[b] = true;
+        prev[b] = -1;
+        next[b] = lists[c];
+        if (lists[c] != -1)
+            prev[lists[c]] = b;
+        lists[c] = b;
+        nonEmpty |= 1L << c;
+    }
+
+    private void remove(int b) {
+        int c = sizeClass(sizes[b]);
+        free[b] = false;
+
+        if (prev[b] != -1)
+            next[prev[b]] = next[b];
+        else
+            lists[c] = next[b];
+
+        if (next[b] != -1)
+            prev[next[b]] = prev[b];
+
+        if (lists[c] == -1)
+            nonEmpty &= ~(1L << c);
+    }
+
+    /**
+     * Reserves {@code size} contiguous cells and returns the block holding them, or -1 if no free block is large enough
+     */
+    int allocate(int size) {
+        int c = sizeClass(size);
+        int block = -1;
+
+        int checked = 0;
+        for (int b = lists[c]; b != -1 && checked < FIT_SEARCH; b = next[b], checked++) {
+            if (sizes[b] >= size) {
+                block = b;
+                break;
+            }
+        }
+
+        if (block == -1) {
+            // every block in a larger class is big enough, so the first one will do
+            long larger = c + 1 < CLASSES ? nonEmpty & (-1L << (c + 1)) : 0;
+            if (larger == 0) {
+                // the bounded search may have skipped a fitting block of the exact class
+                for (int b = checked > 0 ? lists[c] : -1; b != -1; b = next[b]) {
+                    if (sizes[b] >= size) {
+                        block = b;
+                        break;
+                    }
+                }
+
+                if (block == -1)
+                    return -1;
+            } else {
+                block = lists[Long.numberOfTrailingZeros(larger)];
+            }
+        }
+
+        remove(block);
+
+        if (sizes[block] > size) {
+            int rest = newBlock(starts[block] + size, sizes[block] - size, block, after[block]);
+            sizes[block] = size;
+            insert(rest);
+        }
+
+        return block;
+    }
+
+    /**
+     * Returns a block to the free lists, merging it with the free blocks on either side of it
+     */
+    void release(int block) {
+        int n = after[block];
+        if (n != -1 && free[n]) {
+            remove(n);
+            sizes[block] += sizes[n];
+            dropBlock(n);
+        }
+
+        int p = before[block];
+        if (p != -1 && free[p]) {
+            remove(p);
+            sizes[p] += sizes[block];
+            dropBlock(block);
+            block = p;
+        }
+
+        insert(block);
+    }
+
+    /**
+     * Returns how many cells at the end of memory are free
+     */
+    long trailingFree() {
+        return last != -1 && free[last] ? sizes[last] : 0;
+    }
+
+    /**
+     * Adds the cells between the current end of memory and {@code size} as free space, merged with any free block already at the end
+     */
+    void grow(long size) {
+        if (size <= capacity)
+            return;
+
+        if (last != -1 && free[last]) {
+            remove(last);
+            sizes[last] += size - capacity;
+            insert(last);
+        } else {
+            insert(newBlock(capacity, size - capacity, last, -1));
+        }
+
+        capacity = size;
+    }
+
+    /**
+     * Drops the cells from {@code size} to the end of memory, which must all be part of the trailing free block
+     */
+    void shrink(long size) {
+        int b = last;
+        remove(b);
+
+        if (starts[b] < size) {
+            sizes[b] = size - starts[b];
+            insert(b);
+        } else if (before[b] != -1) {
+            dropBlock(b);
+        } else {
+            // the block was all of memory
+            last = -1;
+            if (unusedCount == unused.length)
+                unused = Arrays.copyOf(unused, unused.length * 2);
+            unused[unusedCount++] = b;
+        }
+
+        capacity = size;
+    }
+
+    /**
+     * Hands out the cells from {@code start} to {@code start + size}, which must lie in the trailing free block;
+     * claiming blocks in order of their start rebuilds the free list of a restored memory
+     */
+    int claim(long start, int size) {
+        int b = last;
+        remove(b);
+
+        if (starts[b] < start) {
+            long gap = start - starts[b];
+            int used = newBlock(start, sizes[b] - gap, b, -1);
+            sizes[b] = gap;
+            insert(b);
+            b = used;
+        }
+
+        if (sizes[b] > size) {
+            int rest = newBlock(start + size, sizes[b] - size, b, -1);
+            sizes[b] = size;
+            insert(rest);
+        }
+
+        return b;
+    }
+}
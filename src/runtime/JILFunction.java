@@ -1,27 +1,138 @@
 package runtime;
 
 import lexer.Token;
+import lexer.TokenStore;
+import lexer.TokenType;
 import runtime.errors.JILException;
 import runtime.errors.JILNativeException;
 
-import java.lang.reflect.InvocationTargetException;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
 import java.lang.reflect.Method;
 import java.lang.reflect.ParameterizedType;
 import java.lang.reflect.Type;
-import java.util.Arrays;
 import java.util.HashMap;
+import java.util.Map;
 
 public class JILFunction {
-    Token[][] tokens;
+    TokenStore tokens;
     int argc;
     Method builtin = null;
+    // where a native from runtime.JILModules is found, until its first call binds it
+    private JILModules.Native source = null;
+    private volatile MethodHandle nativeHandle = null;
+    Prepared prepared = null;
+    JILProgram program = null;
 
-    public JILFunction(Token[][] tokens, int argc) {
+    /**
+     * The parts of a function body that are the same for every call, computed once when the function is defined
+     * <p>
+     * If the body is malformed, {@code error} holds the message that is raised at the start of line {@code errorLine} whenever the function is called.
+     * Once {@code runtime.JILVerifier} has checked the body, {@code exprs} holds the compiled expression of each line that has one,
+     * and the token path skips the checks the verifier already made
+     */
+    record Prepared(Map<String, Integer> labels, int errorLine, String error, JILExpr[] exprs) {
+        Prepared(Map<String, Integer> labels, int errorLine, String error) {
+            this(labels, errorLine, error, null);
+        }
+
+        boolean verified() {
+            return exprs != null;
+        }
+
+        Prepared verified(JILExpr[] exprs) {
+            return new Prepared(labels, -1, null, exprs);
+        }
+
+        static Prepared of(TokenStore tokens) {
+            HashMap<String, Integer> labels = new HashMap<>();
+
+            for (int i = 0; i < tokens.lines(); i++) {
+                if (!tokens.content(i, 0).equals("lbl"))
+                    continue;
+
+                String res = new JILInterpreter.TokenChecker(tokens.range(i, 0)).checkSingle();
+                if (res != null)
+                    return new Prepared(Map.of(), i, res);
+
+                String label = tokens.content(i, 1);
+                if (labels.containsKey(label))
+                    return new Prepared(Map.of(), i, "cannot redefine label '" + label + "'");
+
+                labels.put(label, i + 1);
+            }
+
+            int openCatches = 0;
+            for (int i = 0; i < tokens.lines(); i++) {
+                if (!tokens.is(i, 0, TokenType.Ident))
+                    continue;
+
+                String op = tokens.content(i, 0);
+                switch (op) {
+                    case "catch" -> {
+                        if (tokens.length(i) > 1 && !labels.containsKey(tokens.content(i, 1)))
+                            return new Prepared(Map.of(), i, "unknown label '" + tokens.content(i, 1) + "'");
+
+                        openCatches++;
+                    }
+                    case "endcatch", "endcatches" -> {
+                        if (openCatches == 0)
+                            return new Prepared(Map.of(), i, String.format("'%s' has no matching 'catch'", op));
+
+                        openCatches = op.equals("endcatch") ? openCatches - 1 : 0;
+                    }
+                }
+            }
+
+            return new Prepared(Map.copyOf(labels), -1, null);
+        }
+    }
+
+    /**
+     * @param argc the number of arguments the function must be called with, or a negative number to accept any amount
+     */
+    public JILFunction(TokenStore tokens, int argc, boolean compile) {
+        this(tokens, argc, compile, Prepared.of(tokens));
+    }
+
+    /**
+     * The body is kept only as {@code tokens}, which the token path, {@code runtime.JILCompiler} and {@code runtime.JILVerifier} all read
+     */
+    JILFunction(TokenStore tokens, int argc, boolean compile, Prepared prepared) {
         this.tokens = tokens;
         this.argc = argc;
+
+        this.prepared = prepared;
+        if (compile)
+            program = JILCompiler.compile(tokens, prepared);
+    }
+
+    public JILFunction(Token[][] tokens, int argc, boolean compile) {
+        this(TokenStore.of(tokens), argc, compile);
+    }
+
+    public JILFunction(Token[][] tokens, int argc) {
+        this(tokens, argc, true);
     }
 
     public JILFunction(Method builtin) throws JILException {
+        check(builtin);
+
+        argc = builtin.getParameterCount();
+        this.builtin = builtin;
+
+        bind();
+    }
+
+    /**
+     * A native that is only looked up and bound the first time it is called
+     */
+    JILFunction(JILModules.Native source) {
+        argc = source.argc() + 2;
+        this.source = source;
+    }
+
+    private static void check(Method builtin) throws JILException {
         if (!builtin.getReturnType().equals(int.class))
             throw new JILException(String.format("imported function '%s' does not return a JILReturn record", builtin.getName()));
 
@@ -46,59 +157,136 @@ public class JILFunction {
                 throw new JILException(String.format("argument %d from imported function '%s' is not an int", i, builtin.getName()));
             }
         }
+    }
 
-        argc = builtin.getParameterCount();
-        this.builtin = builtin;
+    /**
+     * Binds the native method to a method handle once, so calls neither box their arguments nor go through reflection
+     * <p>
+     * Calls with up to four JIL arguments use {@code invokeExact} on the handle itself;
+     * larger arities go through a handle that spreads an {@code int[]}
+     */
+    private void bind() throws JILException {
+        try {
+            nativeHandle = MethodHandles.publicLookup().unreflect(builtin);
+            if (argc - 2 > 4)
+                nativeHandle = nativeHandle.asSpreader(int[].class, argc - 2);
+        } catch (IllegalAccessException e) {
+            throw new JILException(String.format("could not bind imported function '%s': %s", builtin.getName(), e.getMessage()));
+        }
+    }
+
+    private MethodHandle handle() throws JILException {
+        MethodHandle handle = nativeHandle;
+        return handle != null ? handle : resolve();
+    }
+
+    private synchronized MethodHandle resolve() throws JILException {
+        if (nativeHandle == null) {
+            Method m = source.resolve();
+            check(m);
+
+            builtin = m;
+            bind();
+        }
+
+        return nativeHandle;
+    }
+
+    int runNative(JILMemory memory, HashMap<String, JILFunction> funcs, int count, int a, int b, int c, int d) throws JILException {
+        MethodHandle handle = handle();
+
+        try {
+            return switch (count) {
+                case 0 -> (int) handle.invokeExact(memory, funcs);
+                case 1 -> (int) handle.invokeExact(memory, funcs, a);
+                case 2 -> (int) handle.invokeExact(memory, funcs, a, b);
+                case 3 -> (int) handle.invokeExact(memory, funcs, a, b, c);
+                default -> (int) handle.invokeExact(memory, funcs, a, b, c, d);
+            };
+        } catch (JILException e) {
+            throw e;
+        } catch (Throwable e) {
+            throw nativeFailure(e);
+        }
+    }
+
+    private static JILException nativeFailure(Throwable cause) {
+        StackTraceElement[] trace = cause.getStackTrace();
+        String[] stringTrace = new String[trace.length];
+        for (int i = 0; i < trace.length; i++)
+            stringTrace[i] = trace[i].toString();
+
+        return new JILException("an exception has occurred inside the called native function:\n " + cause.getMessage() + "\n  " + String.join("\n  ", stringTrace));
     }
 
     public int run(String file, int showVars, JILMemory outerMemory, HashMap<String, JILFunction> funcs, int ...args) throws JILException {
-        if (builtin != null) {
-            if (args.length < argc - 2)
-                throw new JILException(String.format("not enough arguments; expected %d, but %d were given", argc, args.length));
-            else if (args.length > argc - 2)
-                throw new JILException(String.format("too many enough arguments; expected %d, but %d were given", argc, args.length));
-
-            Object[] finalArgs = new Object[args.length + 2];
-            finalArgs[0] = outerMemory;
-            finalArgs[1] = funcs;
-            for (int i = 0; i < args.length; i++) {
-                finalArgs[i + 2] = args[i];
+        return run(file, showVars, outerMemory, funcs, Map.of(), args);
+    }
+
+    /**
+     * Runs the function with {@code bindings} already defined as variables; natives ignore them
+     */
+    int run(String file, int showVars, JILMemory outerMemory, HashMap<String, JILFunction> funcs, Map<String, Integer> bindings, int ...args) throws JILException {
+        if (isNative()) {
+            checkArgs(args.length);
+
+            if (args.length <= 4) {
+                return runNative(outerMemory, funcs, args.length,
+                        args.length > 0 ? args[0] : 0,
+                        args.length > 1 ? args[1] : 0,
+                        args.length > 2 ? args[2] : 0,
+                        args.length > 3 ? args[3] : 0);
             }
 
             try {
-                return (int) builtin.invoke(null, finalArgs);
-            } catch (IllegalAccessException | IllegalArgumentException e) {
-                throw new JILException("'" + e.getMessage() + "' from function invocation");
-            } catch (InvocationTargetException e) {
-                Throwable cause = e.getCause();
-                if (cause != null) {
-                    if (cause.getClass().equals(JILException.class)) {
-                        throw (JILException)cause;
-                    } else if (cause.getClass().equals(JILNativeException.class)) {
-                        throw (JILNativeException)cause;
-                    } else {
-                        StackTraceElement[] trace = cause.getStackTrace();
-                        String[] stringTrace = new String[trace.length];
-                        for (int i = 0; i < trace.length; i++)
-                            stringTrace[i] = trace[i].toString();
-
-                        throw new JILException("an exception has occurred inside the called native function:\n " + e.getCause().getMessage() + "\n  " + String.join("\n  ", stringTrace));
-                    }
-                } else {
-                    throw new JILException("an unknown exception has occurred inside the called native function");
-                }
+                return (int) handle().invokeExact(outerMemory, funcs, args);
+            } catch (JILException e) {
+                throw e;
+            } catch (Throwable e) {
+                throw nativeFailure(e);
             }
         } else {
+            checkArgs(args.length);
+
             JILInterpreter interpreter = new JILInterpreter(outerMemory, funcs);
+            if (program != null)
+                return interpreter.execute(file, showVars, program, bindings, args);
+
             for (int i = 0; i < args.length; i++)
                 interpreter.setVar("$" + i, args[i], true);
+            for (Map.Entry<String, Integer> binding : bindings.entrySet())
+                interpreter.setRawVar(binding.getKey(), binding.getValue());
 
-            return interpreter.execute(file, showVars, true, tokens);
+            return interpreter.execute(file, showVars, prepared, tokens);
         }
     }
 
+    public final TokenStore getTokens() {
+        return tokens;
+    }
+
+    void checkArgs(int count) throws JILException {
+        int expected = isNative() ? argc - 2 : argc;
+
+        if (expected >= 0 && count < expected)
+            throw new JILException(String.format("not enough arguments; expected %d, but %d were given", expected, count));
+        else if (expected >= 0 && count > expected)
+            throw new JILException(String.format("too many arguments; expected %d, but %d were given", expected, count));
+    }
+
+    /**
+     * Whether this function is a native imported from a module, bound or not
+     */
+    public final boolean isNative() {
+        return builtin != null || source != null;
+    }
+
+    public final JILProgram getProgram() {
+        return program;
+    }
+
     @Override
     public String toString() {
-        return String.format("fun(%d)", builtin != null ? argc - 2 : argc);
+        return String.format("fun(%d)", isNative() ? argc - 2 : Math.max(argc, 0));
     }
 }
@@ -0,0 +1,81 @@
+package runtime;
+
+import runtime.errors.JILException;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Saves a {@code runtime.JILMemory} and a set of variable bindings to an image file, and restores them into a new run
+ * <p>
+ * Bindings hold raw values the way a variable on the token path does, so a variable from {@code def} is a pointer into the saved memory
+ */
+public final class JILImage {
+    // "JILI"
+    private static final int MAGIC = 0x4A494C49;
+    private static final int VERSION = 1;
+
+    private JILImage() {
+    }
+
+    public static void save(File file, JILMemory memory, Map<String, Integer> bindings) throws JILException {
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), 1 << 16))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+
+            out.writeInt(bindings.size());
+            for (Map.Entry<String, Integer> binding : bindings.entrySet()) {
+                byte[] name = binding.getKey().getBytes(StandardCharsets.UTF_8);
+                out.writeInt(name.length);
+                out.write(name);
+                out.writeInt(binding.getValue());
+            }
+
+            memory.save(out);
+        } catch (IOException e) {
+            throw new JILException(String.format("could not write image '%s': %s", file, e.getMessage()));
+        }
+    }
+
+    /**
+     * Maps the image at {@code file}, restores its memory into {@code memory} and returns its bindings
+     */
+    public static Map<String, Integer> restore(File file, JILMemory memory) throws JILException {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            if (channel.size() > Integer.MAX_VALUE)
+                throw new JILException(String.format("image '%s' is too large to map", file));
+
+            MappedByteBuffer in = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (in.getInt() != MAGIC)
+                throw new JILException(String.format("'%s' is not a JIL image", file));
+            else if (in.getInt() != VERSION)
+                throw new JILException(String.format("image '%s' was written by a different version of JIL", file));
+
+            int count = in.getInt();
+            HashMap<String, Integer> bindings = new HashMap<>();
+            for (int i = 0; i < count; i++) {
+                byte[] name = new byte[in.getInt()];
+                in.get(name);
+                bindings.put(new String(name, StandardCharsets.UTF_8), in.getInt());
+            }
+
+            memory.load(in);
+
+            return bindings;
+        } catch (BufferUnderflowException | IndexOutOfBoundsException | NegativeArraySizeException e) {
+            throw new JILException(String.format("image '%s' is truncated", file));
+        } catch (IOException e) {
+            throw new JILException(String.format("could not read image '%s': %s", file, e.getMessage()));
+        }
+    }
+}
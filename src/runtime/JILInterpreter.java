@@ -2,27 +2,44 @@ package runtime;
 
 import lexer.Lexer;
 import lexer.Token;
+import lexer.TokenStore;
 import lexer.TokenType;
 import runtime.errors.JILException;
 import runtime.errors.JILNativeException;
 
 import java.io.File;
-import java.lang.reflect.Method;
-import java.net.MalformedURLException;
-import java.net.URL;
-import java.net.URLClassLoader;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Stack;
-import java.util.regex.Pattern;
 
 public class JILInterpreter {
+    private static final int MAX_TIER_DEPTH = 256;
+
     private final JILMemory memory;
     private final HashMap<String, Integer> vars;
     private final HashMap<String, JILFunction> funcs;
-
-    private record TokenChecker(Token[] tokens) {
+    private boolean compile;
+    // the imports and functions of the file being loaded, while runtime.JILCache is recording them
+    private ArrayList<JILCache.Item> loaded = null;
+    private boolean tiering;
+    private int tierDepth;
+    private File workingDir = null;
+    private int[] estack;
+    private JILFrame[] frames;
+    private int depth;
+    // the cells box and newString made for the calls in progress, innermost call's last; 0 marks one that escaped
+    private int[] owned;
+    private int ownedCount;
+    // where the cells of the innermost compiled call start in owned
+    private int tierMark;
+    // set while running an init function, whose variables outlive it as main's bindings
+    private boolean forBindings;
+    private Map<String, Integer> mainBindings;
+
+    record TokenChecker(TokenStore.Range tokens) {
         static class TMatcher {
             boolean expectString, anyOption;
             String[] options;
@@ -51,7 +68,7 @@ public class JILInterpreter {
             }
         }
 
-        private String check(int index, TMatcher matcher) {
+        String check(int index, TMatcher matcher) {
             StringBuilder expectMsg = new StringBuilder();
             if (matcher.expectString) {
                 expectMsg.append("expected string, but found ");
@@ -68,19 +85,19 @@ public class JILInterpreter {
 
             boolean ethrow = true;
 
-            if (index >= tokens.length) {
+            if (index >= tokens.length()) {
                 if (matcher.options != null && matcher.options.length == 0 && !matcher.expectString)
                     ethrow = false;
                 expectMsg.append("but found EOL instead");
             } else if (matcher.expectString) {
-                expectMsg.append("'").append(tokens[index].content()).append("' instead");
-                ethrow = !tokens[index].is(TokenType.String);
+                expectMsg.append("'").append(tokens.content(index)).append("' instead");
+                ethrow = !tokens.is(index, TokenType.String);
             } else if (matcher.anyOption) {
                 ethrow = false;
             } else if (matcher.options.length == 0) {
-                expectMsg.append("'").append(tokens[index].content()).append("' instead");
-            } else if (!Arrays.asList(matcher.options).contains(tokens[index].content())) {
-                expectMsg.append("'").append(tokens[index].content()).append("' instead");
+                expectMsg.append("'").append(tokens.content(index)).append("' instead");
+            } else if (!Arrays.asList(matcher.options).contains(tokens.content(index))) {
+                expectMsg.append("'").append(tokens.content(index)).append("' instead");
             } else {
                 ethrow = false;
             }
@@ -88,11 +105,11 @@ public class JILInterpreter {
             return ethrow ? expectMsg.toString() : null;
         }
 
-        private String checkAll(int start, int end, TMatcher... matchers) {
+        String checkAll(int start, int end, TMatcher... matchers) {
             if (start < 0) start = 0;
 
-            if (end > tokens.length)
-                end = tokens.length;
+            if (end > tokens.length())
+                end = tokens.length();
             else if (end < start - 1)
                 end = start + 1;
 
@@ -104,13 +121,21 @@ public class JILInterpreter {
             return null;
         }
 
-        private String checkAll(int start, TMatcher... matchers) {
-            return checkAll(start, tokens.length, matchers);
+        String checkAll(int start, TMatcher... matchers) {
+            return checkAll(start, tokens.length(), matchers);
         }
 
-        private String checkAll(TMatcher... matchers) {
+        String checkAll(TMatcher... matchers) {
             return checkAll(1, matchers);
         }
+
+        String checkSingle() {
+            String res = check(1, TMatcher.any());
+            if (res == null)
+                res = check(2, TMatcher.opt());
+
+            return res;
+        }
     }
 
     private record InFnChecker(boolean inFunction, String operation) {
@@ -121,15 +146,59 @@ public class JILInterpreter {
     }
 
     public JILInterpreter(Integer memorySize) {
-        memory = new JILMemory(memorySize);
+        this(new JILMemory(memorySize));
+    }
+
+    public JILInterpreter(JILMemory memory) {
+        this.memory = memory;
         vars = new HashMap<>();
         funcs = new HashMap<>();
+        compile = true;
+        tiering = true;
+        tierDepth = 0;
+        estack = new int[16];
+        frames = new JILFrame[16];
+        depth = 0;
+        mainBindings = Map.of();
     }
 
     public JILInterpreter(JILMemory outerMemory, HashMap<String, JILFunction> funcs) {
         memory = outerMemory;
         vars = new HashMap<>();
         this.funcs = funcs;
+        compile = true;
+        tiering = true;
+        tierDepth = 0;
+        estack = new int[16];
+        frames = new JILFrame[16];
+        depth = 0;
+        mainBindings = Map.of();
+    }
+
+    /**
+     * Sets the directory modules are imported from before {@code ~/jil/lib}; {@code null}, the default, is the working directory of the process
+     */
+    public final void setWorkingDir(File workingDir) {
+        this.workingDir = workingDir;
+    }
+
+    /**
+     * Sets whether functions defined by this interpreter are compiled to a {@code runtime.JILProgram}
+     * or left to run on the token path
+     */
+    public final void setCompile(boolean compile) {
+        this.compile = compile;
+    }
+
+    /**
+     * Sets whether hot functions defined by this interpreter are compiled to JVM bytecode by {@code runtime.JILTierCompiler}
+     */
+    public final void setTiering(boolean tiering) {
+        this.tiering = tiering;
+    }
+
+    final JILMemory memory() {
+        return memory;
     }
 
     public final JILMemory.MemoryDebug memoryDebug() {
@@ -207,220 +276,143 @@ public class JILInterpreter {
     }
 
     public final void loadModule(File path) throws JILException {
-        String[] spath = path.getAbsolutePath().split(Pattern.quote(File.separator));
-
-        String modclass = spath[spath.length - 1];
-        if (modclass.endsWith(".class"))
-            modclass = modclass.substring(0, modclass.length() - 6);
-
-        File modpath = new File(String.join("/", Arrays.copyOf(spath, spath.length - 1)));
-
-        URL url;
-        try {
-            url = modpath.toURI().toURL();
-        } catch (MalformedURLException e) {
-            throw new JILException(e.getMessage());
-        }
-
-        ClassLoader cl = new URLClassLoader(new URL[]{url});
-
-        Class<?> cls;
-        try {
-            cls = cl.loadClass(modclass);
-        } catch (ClassNotFoundException e) {
-            throw new JILException(e.toString());
-        }
+        defModule(JILModules.loadClassFile(path));
+    }
 
-        for (Method m : cls.getMethods()) {
-            JILNative jilNative = m.getAnnotation(JILNative.class);
+    private void defModule(List<Map.Entry<String, JILFunction>> module) throws JILException {
+        for (Map.Entry<String, JILFunction> export : module)
+            defFunc(export.getKey(), export.getValue());
+    }
 
-            if (jilNative != null) {
-                String fname = jilNative.value().trim();
-                if (fname.isBlank() || fname.isEmpty())
-                    fname = m.getName();
+    private JILFunction defineFunction(String name, TokenStore body, int argc, JILFunction.Prepared prepared) throws JILException {
+        JILFunction f = new JILFunction(body, argc, compile, prepared);
+        if (f.program != null)
+            f.program.tierable = tiering;
+        defFunc(name, f);
 
-                defFunc(fname, new JILFunction(m));
-            }
-        }
+        return f;
     }
 
     public final int eval(Token[] tokens, boolean rawMode) throws JILException {
-        Stack<Integer> estack = new Stack<>();
-
-        for (Token t : tokens) {
-            if (t.is(TokenType.String))
-                throw new JILException("cannot use strings in expressions");
-
-            JILException n2op = new JILException("expected one operands on the stack for '" + t.content() + "', but found " + estack.size() + " instead");
-
-            JILException n1op = new JILException("expected one operand on the stack for '" + t.content() + "', but found " + estack.size() + " instead");
-
-            try {
-                estack.add(Integer.parseInt(t.content()));
-            } catch (NumberFormatException e) {
-                switch (t.content()) {
-                    case "+" -> {
-                        if (estack.size() < 2)
-                            throw n2op;
-
-                        Integer b = estack.pop();
-                        estack.add(estack.pop() + b);
-                    }
-                    case "-" -> {
-                        if (estack.size() < 2)
-                            throw n2op;
-
-                        Integer b = estack.pop();
-                        estack.add(estack.pop() - b);
-                    }
-                    case "*" -> {
-                        if (estack.size() < 2)
-                            throw n2op;
-
-                        Integer b = estack.pop();
-                        estack.add(estack.pop() * b);
-                    }
-                    case "/" -> {
-                        if (estack.size() < 2)
-                            throw n2op;
-
-                        Integer b = estack.pop();
-                        estack.add(estack.pop() / b);
-                    }
-                    case "%" -> {
-                        if (estack.size() < 2)
-                            throw n2op;
-
-                        Integer b = estack.pop();
-                        estack.add(estack.pop() % b);
-                    }
-                    case "**" -> {
-                        if (estack.size() < 2)
-                            throw n2op;
-
-                        Integer b = estack.pop();
-                        estack.add((int)Math.pow((double)estack.pop(), (double)b));
-                    }
-                    case "and" -> {
-                        if (estack.size() < 2)
-                            throw n2op;
-
-                        Integer b = estack.pop();
-                        estack.add(estack.pop() != 0 && b != 0 ? 1 : 0);
-                    }
-                    case "or" -> {
-                        if (estack.size() < 2)
-                            throw n2op;
+        return eval(JILExpr.compile(tokens, rawMode));
+    }
 
-                        Integer b = estack.pop();
-                        estack.add(estack.pop() != 0 || b != 0 ? 1 : 0);
-                    }
-                    case "=" -> {
-                        if (estack.size() < 2)
-                            throw n2op;
+    private int eval(TokenStore tokens, int line, int from, boolean rawMode) throws JILException {
+        return eval(JILExpr.compile(tokens, line, from, rawMode));
+    }
 
-                        Integer b = estack.pop();
-                        estack.add(estack.pop().equals(b) ? 1 : 0);
-                    }
-                    case "!=" -> {
-                        if (estack.size() < 2)
-                            throw n2op;
+    public final int eval(JILExpr expr) throws JILException {
+        return eval(expr, null);
+    }
 
-                        Integer b = estack.pop();
-                        estack.add(estack.pop().equals(b) ? 0 : 1);
-                    }
-                    case ">", ">=" -> {
-                        if (estack.size() < 2)
-                            throw n2op;
+    public int runMain(boolean showVars, int... args) throws JILException {
+        JILFunction mainf = getFuncUnguarded("main");
+        if (mainf == null)
+            throw new JILException("function 'main' not found");
 
-                        Integer b = estack.pop();
-                        Integer a = estack.pop();
-                        estack.add(a > b || (t.content().endsWith("=") && a.equals(b)) ? 1 : 0);
-                    }
-                    case "<", "<=" -> {
-                        if (estack.size() < 2)
-                            throw n2op;
+        try {
+            return mainf.run("main", showVars ? 1 : 0, memory, funcs, mainBindings, args);
+        } finally {
+            memory.output().flush();
+        }
+    }
 
-                        Integer b = estack.pop();
-                        Integer a = estack.pop();
-                        estack.add(a < b || (t.content().endsWith("=") && a.equals(b)) ? 1 : 0);
-                    }
-                    case "!" -> {
-                        if (estack.empty())
-                            throw n1op;
+    /**
+     * Sets variables that 'main' starts out with, such as the ones restored from a {@code runtime.JILImage}
+     * <p>
+     * Bindings are raw values; a variable from {@code def} is the pointer to its cell
+     */
+    public final void setMainBindings(Map<String, Integer> bindings) {
+        mainBindings = bindings;
+    }
 
-                        estack.add(estack.pop() == 0 ? 1 : 0);
-                    }
-                    default -> {
-                        estack.push(rawMode ? getRawVar(t.content()) : getVar(t.content()));
-                    }
-                }
+    /**
+     * Runs the function {@code name} without arguments and returns the variables it had defined when it finished, as raw values
+     * <p>
+     * Variables the compiler kept in a frame slot are given a cell in memory, so every binding can be handed to {@code setMainBindings}
+     */
+    public Map<String, Integer> runForBindings(String name, boolean showVars) throws JILException {
+        JILFunction f = getFunc(name);
+        if (f.isNative())
+            throw new JILException(String.format("'%s' cannot be an imported function", name));
+        f.checkArgs(0);
+
+        JILInterpreter interpreter = new JILInterpreter(memory, funcs);
+        interpreter.forBindings = true;
+        try {
+            if (f.program == null) {
+                interpreter.execute(name, showVars ? 1 : 0, f.prepared, f.tokens);
+                return interpreter.getVars();
             }
+
+            interpreter.execute(name, showVars ? 1 : 0, f.program);
+        } finally {
+            memory.output().flush();
         }
 
-        if (estack.empty())
-            throw new JILException("the stack cannot be empty at the end of expression evaluation");
+        // the finished frame is left on the pool until the next call
+        JILFrame frame = interpreter.frames[0];
+        HashMap<String, Integer> bindings = new HashMap<>();
+        for (int i = 0; i < frame.names.length; i++) {
+            if (frame.defined[i])
+                bindings.put(frame.names[i], frame.boxed[i] ? frame.slots[i] : cell(frame.slots[i]));
+        }
 
-        return estack.pop();
+        return bindings;
     }
 
-    public int runMain(boolean showVars, int... args) throws JILException {
-        JILFunction mainf = getFuncUnguarded("main");
-        if (mainf == null)
-            throw new JILException("function 'main' not found");
+    public int execute(String file, int showVars, boolean inFunction, Token[][] tokenLines) throws JILException {
+        return execute(file, showVars, inFunction, TokenStore.of(tokenLines));
+    }
 
-        return mainf.run("main", showVars ? 1 : 0, memory, funcs, args);
+    public int execute(String file, int showVars, boolean inFunction, TokenStore tokens) throws JILException {
+        return execute(file, showVars, inFunction ? JILFunction.Prepared.of(tokens) : null, tokens);
     }
 
-    public int execute(String file, int showVars, boolean inFunction, Token[][] tokenLines) throws JILException {
-        HashMap<String, Integer> labels = new HashMap<>();
+    int execute(String file, int showVars, JILFunction.Prepared prepared, TokenStore tokens) throws JILException {
+        boolean inFunction = prepared != null;
+        Map<String, Integer> labels = inFunction ? prepared.labels() : Map.of();
+        // the expression of each line, if runtime.JILVerifier has already checked the lines
+        JILExpr[] exprs = inFunction ? prepared.exprs() : null;
         int ln = 0;
-        Token ct = null;
+        // the line errors are located at
+        int site = -1;
         Stack<String> catcherLabels = new Stack<>();
 
         try {
-            if (inFunction) {
-                for (int i = 0; i < tokenLines.length; i++) {
-                    Token[] tl = tokenLines[i];
-                    TokenChecker tc = new TokenChecker(tl);
-
-                    ct = tl[0];
-
-                    if (tl[0].is("lbl")) {
-                        String res = tc.checkAll(TokenChecker.TMatcher.any());
-                        if (res != null)
-                            throw new JILException(res);
-
-                        String label = tl[1].content();
-
-                        if (labels.containsKey(label))
-                            throw new JILException("cannot redefine label '" + label + "'");
-
-                        labels.put(label, i + 1);
-                    }
-                }
+            if (inFunction && prepared.error() != null) {
+                site = prepared.errorLine();
+                throw new JILException(prepared.error());
             }
 
-            while (ln < tokenLines.length) {
-                Token[] tl = tokenLines[ln];
-                TokenChecker tc = new TokenChecker(tl);
-                InFnChecker inFnChecker = new InFnChecker(inFunction, tl[0].content());
+            while (ln < tokens.lines()) {
+                int line = ln;
+                int length = tokens.length(line);
+                String op = tokens.content(line, 0);
+                // lines runtime.JILVerifier has checked are only in functions, so they need neither checker
+                TokenChecker tc = exprs != null ? null : new TokenChecker(tokens.range(line, 0));
+                InFnChecker inFnChecker = exprs != null ? null : new InFnChecker(inFunction, op);
 
-                ct = tl[0];
+                site = line;
 
-                if (tl[0].is(TokenType.String))
+                if (tokens.is(line, 0, TokenType.String))
                     throw new JILException("unexpected string");
 
-                switch (tl[0].content()) {
-                    case "rem" -> ln++;
+                switch (op) {
+                    case "rem", "lbl" -> ln++;
                     case "goto" -> {
+                        if (exprs != null) {
+                            ln = labels.get(tokens.content(line, 1));
+                            continue;
+                        }
+
                         inFnChecker.check();
 
                         String res = tc.checkAll(TokenChecker.TMatcher.any());
                         if (res != null)
                             throw new JILException(res);
 
-                        String label = tl[1].content();
+                        String label = tokens.content(line, 1);
 
                         if (!labels.containsKey(label))
                             throw new JILException("unknown label '" + label + "'");
@@ -435,19 +427,11 @@ public class JILInterpreter {
                         if (res != null)
                             throw new JILException(res);
 
-                        String modPath = tl[1].content();
-                        File libModule = new File(System.getProperty("user.home") + File.separator + "jil" + File.separator + "lib" + File.separator + modPath + ".class");
-                        File localModule = new File(modPath + ".class");
-
-                        if (localModule.exists()) {
-                            loadModule(localModule);
-                        } else if (libModule.exists()) {
-                            loadModule(libModule);
-                        } else {
-                            throw new JILException(String.format("module '%s' not found", modPath));
-                        }
+                        defModule(JILModules.load(tokens.content(line, 1), workingDir));
+                        if (loaded != null)
+                            loaded.add(JILCache.Item.module(tokens.get(line, 0), tokens.content(line, 1)));
 
-                            ln++;
+                        ln++;
                     }
                     case "fun" -> {
                         if (inFunction)
@@ -459,36 +443,35 @@ public class JILInterpreter {
 
                         String res2 = tc.check(2, TokenChecker.TMatcher.any());
 
-                        String name = tl[1].content();
-                        int argc = 0;
+                        String name = tokens.content(line, 1);
+                        int argc = -1;
                         if (res2 == null) {
                             try {
-                                argc = Integer.parseInt(tl[2].content());
+                                argc = Integer.parseInt(tokens.content(line, 2));
                             } catch (NumberFormatException e) {
                                 throw new JILException("function argument count must be a number");
                             }
                         }
 
-                        ArrayList<Token[]> acc = new ArrayList<>();
-
                         int seek = ln + 1;
-                        while (seek < tokenLines.length) {
-                            Token[] subTL = tokenLines[seek];
-                            TokenChecker subTC = new TokenChecker(subTL);
+                        while (seek < tokens.lines()) {
+                            TokenChecker subTC = new TokenChecker(tokens.range(seek, 0));
 
                             res = subTC.checkAll(0, TokenChecker.TMatcher.opt("end"));
                             if (res == null)
                                 break;
 
-                            if (seek == tokenLines.length - 1)
+                            if (seek == tokens.lines() - 1)
                                 throw new JILException("unterminated function definition");
 
-                            acc.add(subTL);
-
                             seek++;
                         }
 
-                        defFunc(name, new JILFunction(acc.toArray(new Token[0][]), argc));
+                        // the body is a view of the file's tokens, not a copy of them
+                        TokenStore body = tokens.slice(ln + 1, seek);
+                        JILFunction f = defineFunction(name, body, argc, JILFunction.Prepared.of(body));
+                        if (loaded != null)
+                            loaded.add(JILCache.Item.function(tokens.get(line, 0), name, argc, body, f.prepared));
 
                         ln = seek;
 
@@ -502,32 +485,33 @@ public class JILInterpreter {
                         if (res != null)
                             throw new JILException(res);
 
-                        String name = tl[1].content();
+                        String name = tokens.content(line, 1);
 
                         ln++;
                     }
                     case "def", "defp" -> {
-                        inFnChecker.check();
+                        if (exprs == null) {
+                            inFnChecker.check();
 
-                        String res = tc.check(1, TokenChecker.TMatcher.any());
-                        if (res != null)
-                            throw new JILException(res);
+                            String res = tc.check(1, TokenChecker.TMatcher.any());
+                            if (res != null)
+                                throw new JILException(res);
 
-                        String name = tl[1].content();
+                            if (length == 2)
+                                throw new JILException("expected expression, but found EOL instead");
+                        }
 
-                        if (tl.length == 2)
-                            throw new JILException("expected expression, but found EOL instead");
+                        String name = tokens.content(line, 1);
 
-                        res = tc.check(2, TokenChecker.TMatcher.str());
-                        if (res == null && tl.length == 3) {
-                            String str = tl[2].content();
+                        if (tokens.is(line, 2, TokenType.String) && length == 3) {
+                            String str = tokens.content(line, 2);
                             int ptr = memory.malloc(str.length());
                             memory.derefString(ptr, str);
                             setRawVar(name, ptr, true);
 
                         } else {
-                            int evalRes = eval(Arrays.copyOfRange(tl, 2, tl.length), tl[0].content().endsWith("p"));
-                            if (tl[0].content().endsWith("p")) {
+                            int evalRes = exprs != null ? eval(exprs[ln]) : eval(tokens, line, 2, op.endsWith("p"));
+                            if (op.endsWith("p")) {
                                 setRawVar(name, evalRes, true);
                             } else {
                                 setVar(name, evalRes, true);
@@ -537,26 +521,27 @@ public class JILInterpreter {
                         ln++;
                     }
                     case "set", "setp" -> {
-                        inFnChecker.check();
+                        if (exprs == null) {
+                            inFnChecker.check();
 
-                        String res = tc.check(1, TokenChecker.TMatcher.any());
-                        if (res != null)
-                            throw new JILException(res);
+                            String res = tc.check(1, TokenChecker.TMatcher.any());
+                            if (res != null)
+                                throw new JILException(res);
 
-                        String name = tl[1].content();
+                            if (length == 2)
+                                throw new JILException("expected expression, but found EOL instead");
+                        }
 
-                        if (tl.length == 2)
-                            throw new JILException("expected expression, but found EOL instead");
+                        String name = tokens.content(line, 1);
 
-                        res = tc.check(2, TokenChecker.TMatcher.str());
-                        if (res == null && tl.length == 3) {
-                            String str = tl[2].content();
+                        if (tokens.is(line, 2, TokenType.String) && length == 3) {
+                            String str = tokens.content(line, 2);
                             int ptr = memory.malloc(str.length());
                             memory.derefString(ptr, str);
                             setRawVar(name, ptr, false);
                         } else {
-                            int evalRes = eval(Arrays.copyOfRange(tl, 2, tl.length), tl[0].content().endsWith("p"));
-                            if (tl[0].content().endsWith("p")) {
+                            int evalRes = exprs != null ? eval(exprs[ln]) : eval(tokens, line, 2, op.endsWith("p"));
+                            if (op.endsWith("p")) {
                                 setRawVar(name, evalRes, false);
                             } else {
                                 setVar(name, evalRes, false);
@@ -566,31 +551,35 @@ public class JILInterpreter {
                         ln++;
                     }
                     case "call" -> {
-                        inFnChecker.check();
+                        if (exprs == null)
+                            inFnChecker.check();
 
-                        String res = tc.checkAll(1, 4, TokenChecker.TMatcher.opt("into", "intop"), TokenChecker.TMatcher.any(), TokenChecker.TMatcher.any());
+                        String res;
+                        if (exprs != null)
+                            res = tokens.content(line, 1).equals("into") || tokens.content(line, 1).equals("intop") ? null : "";
+                        else
+                            res = tc.checkAll(1, 4, TokenChecker.TMatcher.opt("into", "intop"), TokenChecker.TMatcher.any(), TokenChecker.TMatcher.any());
 
                         String fname;
                         int argOffset = 2;
                         int[] args;
                         String outVar = null;
                         if (res == null) {
-                            fname = tl[3].content();
-                            outVar = tl[2].content();
+                            fname = tokens.content(line, 3);
+                            outVar = tokens.content(line, 2);
                             argOffset = 4;
                         } else {
-                            String res2 = tc.check(1, TokenChecker.TMatcher.any());
+                            String res2 = exprs != null ? null : tc.check(1, TokenChecker.TMatcher.any());
                             if (res2 != null)
                                 throw new JILException(res2);
 
-                            fname = tl[1].content();
+                            fname = tokens.content(line, 1);
                         }
 
-                        Token[] tArgs = Arrays.copyOfRange(tl, argOffset, tl.length);
-                        args = new int[tArgs.length];
+                        args = new int[length - argOffset];
 
-                        for (int i = 0; i < tArgs.length; i++)
-                            args[i] = getRawVar(tArgs[i].content());
+                        for (int i = 0; i < args.length; i++)
+                            args[i] = getRawVar(tokens.content(line, argOffset + i));
 
                         JILFunction f = getFunc(fname);
 
@@ -606,7 +595,7 @@ public class JILInterpreter {
                         }
 
                         if (outVar != null) {
-                            if (tl[1].content().endsWith("p")) {
+                            if (tokens.content(line, 1).endsWith("p")) {
                                 setRawVar(outVar, ret);
                             } else {
                                 setVar(outVar, ret);
@@ -616,45 +605,51 @@ public class JILInterpreter {
                         ln++;
                     }
                     case "ret", "retp" -> {
-                        inFnChecker.check();
+                        if (exprs == null)
+                            inFnChecker.check();
 
-                        if (tl.length == 1)
+                        if (length == 1)
                             throw new JILException("expected expression, but found EOL instead");
 
+                        if (exprs != null)
+                            return eval(exprs[ln]);
+
                         String res = tc.check(2, TokenChecker.TMatcher.str());
-                        if (res == null && tl.length == 2) {
-                            String str = tl[1].content();
+                        if (res == null && length == 2) {
+                            String str = tokens.content(line, 1);
                             int ptr = memory.malloc(str.length());
                             memory.derefString(ptr, str);
 
                             return ptr;
                         } else {
-                            return eval(Arrays.copyOfRange(tl, 1, tl.length), tl[0].content().endsWith("p"));
+                            return eval(tokens, line, 1, op.endsWith("p"));
                         }
                     }
                     case "if", "ifn", "ifp", "ifnp" -> {
-                        inFnChecker.check();
+                        if (exprs == null)
+                            inFnChecker.check();
 
-                        if (tl.length == 1)
+                        if (length == 1)
                             throw new JILException("expected expression, but found EOL instead");
 
-                        boolean cond = eval(Arrays.copyOfRange(tl, 1, tl.length), tl[0].content().contains("p")) != 0;
+                        boolean cond = (exprs != null ? eval(exprs[ln]) : eval(tokens, line, 1, op.contains("p"))) != 0;
 
-                        if (tl[0].content().contains("n"))
+                        if (op.contains("n"))
                             cond = !cond;
 
                         ln += cond ? 1 : 2;
                     }
                     case "catch" -> {
-                        inFnChecker.check();
+                        if (exprs == null) {
+                            inFnChecker.check();
 
-                        String res = tc.checkAll(TokenChecker.TMatcher.any());
-                        if (res != null)
-                            throw new JILException(res);
-
-                        String label = tl[1].content();
+                            String res = tc.checkAll(TokenChecker.TMatcher.any());
+                            if (res != null)
+                                throw new JILException(res);
+                        }
 
-                        if (!labels.containsKey(label))
+                        String label = tokens.content(line, 1);
+                        if (exprs == null && !labels.containsKey(label))
                             throw new JILException("unknown label '" + label + "'");
 
                         if (catcherLabels.contains(label))
@@ -665,7 +660,8 @@ public class JILInterpreter {
                         ln++;
                     }
                     case "endcatch" -> {
-                        inFnChecker.check();
+                        if (exprs == null)
+                            inFnChecker.check();
 
                         if (catcherLabels.empty())
                             throw new JILException("cannot use 'endcatch' outside of a catch scope");
@@ -675,7 +671,8 @@ public class JILInterpreter {
                         ln++;
                     }
                     case "endcatches" -> {
-                        inFnChecker.check();
+                        if (exprs == null)
+                            inFnChecker.check();
 
                         if (catcherLabels.empty())
                             throw new JILException("cannot use 'endcatches' outside of a catch scope");
@@ -684,21 +681,492 @@ public class JILInterpreter {
 
                         ln++;
                     }
-                    default -> throw new JILException(String.format("unexpected token '%s'", tl[0].content()));
+                    default -> throw new JILException(String.format("unexpected token '%s'", op));
                 }
             }
         } catch (JILException e) {
-            String[] s = ct.format(e.getMessage()).split(":", 2);
-            throw new JILException(s[0] + " of " + file + ":" + s[1]);
+            throw located(tokens.get(site, 0), file, e);
         }
 
         if (showVars > 0)
-            System.out.println(vars);
+            memory.output().println(String.valueOf(vars));
 
         return 0;
     }
 
+    /**
+     * Runs a compiled function on this interpreter's frame stack
+     * <p>
+     * Calls to other compiled functions push a frame instead of recursing,
+     * so the depth of JIL recursion is not limited by the Java thread stack
+     */
+    public int execute(String file, int showVars, JILProgram program, int... args) throws JILException {
+        return execute(file, showVars, program, Map.of(), args);
+    }
+
+    int execute(String file, int showVars, JILProgram program, Map<String, Integer> bindings, int... args) throws JILException {
+        JILTiered tiered = bindings.isEmpty() && !forBindings ? tier(program, file, showVars) : null;
+        if (tiered != null)
+            return runTiered(tiered, args);
+
+        int base = depth;
+        JILFrame frame = pushFrame(program, file, showVars);
+
+        try {
+            for (int i = 0; i < args.length && i < program.paramSlots.length; i++) {
+                int slot = program.paramSlots[i];
+                if (slot >= 0)
+                    frame.put(slot, program.slotBoxed[slot] ? box(args[i]) : args[i]);
+            }
+
+            if (!bindings.isEmpty()) {
+                for (int i = 0; i < program.slotNames.length; i++) {
+                    Integer raw = bindings.get(program.slotNames[i]);
+                    if (raw != null && !frame.defined[i])
+                        frame.put(i, program.slotBoxed[i] ? raw : memory.deref(raw));
+                }
+            }
+
+            return run(base);
+        } finally {
+            depth = base;
+        }
+    }
+
+    private JILFrame pushFrame(JILProgram program, String file, int showVars) {
+        if (depth == frames.length)
+            frames = Arrays.copyOf(frames, frames.length * 2);
+
+        JILFrame frame = frames[depth];
+        if (frame == null) {
+            frame = new JILFrame();
+            frames[depth] = frame;
+        }
+
+        depth++;
+        frame.reset(program, file, showVars);
+        frame.mark = ownedCount;
+        return frame;
+    }
+
+    private int run(int base) throws JILException {
+        JILFrame frame = frames[depth - 1];
+        JILProgram program = frame.program;
+        int[] code = program.code;
+        int pc = 0;
+
+        try {
+            while (true) {
+                frame.pc = pc;
+
+                int ret;
+                if (pc >= code.length) {
+                    if (frame.showVars > 0)
+                        memory.output().println(frame.toString());
+
+                    ret = 0;
+                } else if (code[pc] == JILProgram.RET) {
+                    ret = eval(program.exprs[code[pc + 1]], frame);
+                } else {
+                    switch (code[pc]) {
+                        case JILProgram.GOTO -> pc = backEdge(program, pc, code[pc + 1]);
+                        case JILProgram.DEF_LOCAL -> {
+                            frame.define(code[pc + 1], eval(program.exprs[code[pc + 2]], frame));
+                            pc += 3;
+                        }
+                        case JILProgram.SET_LOCAL -> {
+                            frame.set(code[pc + 1], eval(program.exprs[code[pc + 2]], frame));
+                            pc += 3;
+                        }
+                        case JILProgram.DEF -> {
+                            frame.define(code[pc + 1], box(eval(program.exprs[code[pc + 2]], frame)));
+                            pc += 3;
+                        }
+                        case JILProgram.SET -> {
+                            memory.deref(frame.get(code[pc + 1]), eval(program.exprs[code[pc + 2]], frame));
+                            pc += 3;
+                        }
+                        case JILProgram.DEFP -> {
+                            frame.define(code[pc + 1], escaped(frame.mark, eval(program.exprs[code[pc + 2]], frame)));
+                            pc += 3;
+                        }
+                        case JILProgram.SETP -> {
+                            frame.set(code[pc + 1], escaped(frame.mark, eval(program.exprs[code[pc + 2]], frame)));
+                            pc += 3;
+                        }
+                        case JILProgram.DEFS, JILProgram.SETS -> {
+                            int ptr = newString(program.strings[code[pc + 2]]);
+                            if (code[pc] == JILProgram.DEFS)
+                                frame.define(code[pc + 1], ptr);
+                            else
+                                frame.set(code[pc + 1], ptr);
+                            pc += 3;
+                        }
+                        case JILProgram.INC -> {
+                            int slot = code[pc + 1];
+                            frame.slots[slot] = frame.get(slot) + code[pc + 2];
+                            program.fired[JILProgram.FUSED_INC]++;
+                            pc += 3;
+                        }
+                        case JILProgram.INC_BOXED -> {
+                            int ptr = frame.get(code[pc + 1]);
+                            memory.deref(ptr, memory.deref(ptr) + code[pc + 2]);
+                            program.fired[JILProgram.FUSED_INC]++;
+                            pc += 3;
+                        }
+                        case JILProgram.JMP_CMP, JILProgram.JMP_CMPK -> {
+                            int left = operand(frame, code[pc + 2]);
+                            int right = code[pc] == JILProgram.JMP_CMPK ? code[pc + 3] : operand(frame, code[pc + 3]);
+                            program.fired[JILProgram.FUSED_BRANCH]++;
+                            pc = JILExpr.compare(code[pc + 1], left, right) ? backEdge(program, pc, code[pc + 4]) : pc + 5;
+                        }
+                        case JILProgram.CALL, JILProgram.CALL_IF, JILProgram.CALL_IFN -> {
+                            int argc = code[pc + 4];
+                            int next = pc + JILProgram.width(code, pc);
+                            if (code[pc] != JILProgram.CALL) {
+                                // the condition's errors are located at its own site, just past the call's operands
+                                frame.pc = next - 1;
+                                boolean holds = eval(program.exprs[code[next - 1]], frame) != 0;
+                                frame.pc = pc;
+                                program.fired[JILProgram.FUSED_CALL]++;
+
+                                if (holds != (code[pc] == JILProgram.CALL_IF)) {
+                                    pc = next;
+                                    continue;
+                                }
+                            }
+
+                            for (int i = 0; i < argc; i++)
+                                frame.get(code[pc + 5 + i]);
+
+                            String fname = program.names[code[pc + 1]];
+                            JILFunction f = getFunc(fname);
+                            int calleeShowVars = frame.showVars < 0 ? 0 : frame.showVars - 1;
+
+                            if (f.program != null) {
+                                if (!program.verified)
+                                    f.checkArgs(argc);
+
+                                JILTiered tiered = tier(f.program, fname, calleeShowVars);
+                                if (tiered != null) {
+                                    int[] args = new int[argc];
+                                    for (int i = 0; i < argc; i++)
+                                        args[i] = frame.slots[code[pc + 5 + i]];
+
+                                    assignResult(frame, code, pc, runTiered(tiered, args));
+                                    pc = next;
+                                    continue;
+                                }
+
+                                JILFrame callee = pushFrame(f.program, fname, calleeShowVars);
+                                try {
+                                    int[] params = f.program.paramSlots;
+                                    for (int i = 0; i < argc && i < params.length; i++) {
+                                        if (params[i] >= 0) {
+                                            int arg = frame.slots[code[pc + 5 + i]];
+                                            callee.put(params[i], callee.boxed[params[i]] ? box(arg) : arg);
+                                        }
+                                    }
+                                } catch (JILException e) {
+                                    depth--;
+                                    throw e;
+                                }
+
+                                frame = callee;
+                                program = frame.program;
+                                code = program.code;
+                                pc = 0;
+                                continue;
+                            }
+
+                            int res;
+                            try {
+                                if (f.isNative() && argc <= 4) {
+                                    if (!program.verified)
+                                        f.checkArgs(argc);
+                                    res = f.runNative(memory, funcs, argc,
+                                            argc > 0 ? frame.slots[code[pc + 5]] : 0,
+                                            argc > 1 ? frame.slots[code[pc + 6]] : 0,
+                                            argc > 2 ? frame.slots[code[pc + 7]] : 0,
+                                            argc > 3 ? frame.slots[code[pc + 8]] : 0);
+                                } else {
+                                    int[] args = new int[argc];
+                                    for (int i = 0; i < argc; i++)
+                                        args[i] = frame.slots[code[pc + 5 + i]];
+
+                                    res = f.run(fname, calleeShowVars, memory, funcs, args);
+                                }
+                            } catch (JILNativeException e) {
+                                if (frame.catchDepth > 0) {
+                                    pc = frame.popCatcher();
+                                    continue;
+                                }
+                                throw e;
+                            }
+
+                            assignResult(frame, code, pc, res);
+                            pc = next;
+                        }
+                        case JILProgram.JMPZ -> pc = eval(program.exprs[code[pc + 1]], frame) == 0 ? backEdge(program, pc, code[pc + 2]) : pc + 3;
+                        case JILProgram.JMPNZ -> pc = eval(program.exprs[code[pc + 1]], frame) != 0 ? backEdge(program, pc, code[pc + 2]) : pc + 3;
+                        case JILProgram.CATCH -> {
+                            frame.pushCatcher(code[pc + 1], code[pc + 2]);
+                            pc += 3;
+                        }
+                        case JILProgram.ENDCATCH -> {
+                            if (frame.catchDepth == 0)
+                                throw new JILException("cannot use 'endcatch' outside of a catch scope");
+
+                            frame.catchDepth--;
+                            pc++;
+                        }
+                        case JILProgram.ENDCATCHES -> {
+                            if (frame.catchDepth == 0)
+                                throw new JILException("cannot use 'endcatches' outside of a catch scope");
+
+                            frame.catchDepth = 0;
+                            pc++;
+                        }
+                        case JILProgram.THROW -> throw new JILException(program.strings[code[pc + 1]]);
+                        default -> throw new JILException("invalid opcode " + code[pc]);
+                    }
+
+                    continue;
+                }
+
+                depth--;
+                if (depth > 0 || !forBindings)
+                    release(frame.mark, ret);
+                if (depth == base)
+                    return ret;
+
+                frame = frames[depth - 1];
+                program = frame.program;
+                code = program.code;
+                pc = frame.pc;
+
+                assignResult(frame, code, pc, ret);
+                pc += JILProgram.width(code, pc);
+            }
+        } catch (JILException e) {
+            // the cells of the calls the error unwinds are left allocated, as memory may be what failed
+            if (depth > base && !forBindings)
+                ownedCount = Math.min(ownedCount, frames[base].mark);
+
+            for (int i = depth - 1; i >= base; i--)
+                e = located(frames[i].program.site(frames[i].pc), frames[i].file, e);
+
+            throw e;
+        }
+    }
+
+    private void assignResult(JILFrame frame, int[] code, int pc, int res) throws JILException {
+        int out = code[pc + 2];
+        switch (code[pc + 3]) {
+            case JILProgram.OUT_INTOP, JILProgram.OUT_INTO_LOCAL -> frame.put(out, res);
+            case JILProgram.OUT_INTO -> {
+                if (frame.defined[out])
+                    memory.deref(frame.slots[out], res);
+                else
+                    frame.put(out, box(res));
+            }
+        }
+    }
+
+    /**
+     * Counts a jump from {@code pc} to {@code target} towards compiling {@code program} if it goes backwards, and returns the target
+     */
+    private static int backEdge(JILProgram program, int pc, int target) {
+        if (target <= pc && program.tierable && program.tiered == null)
+            program.heat++;
+
+        return target;
+    }
+
+    /**
+     * The value of an operand of {@code JILProgram.JMP_CMP}: a slot, or the complement of a boxed slot whose cell is read
+     */
+    private int operand(JILFrame frame, int ref) throws JILException {
+        return ref >= 0 ? frame.get(ref) : memory.deref(frame.get(~ref));
+    }
+
+    /**
+     * Gives {@code val} a cell of its own, which is freed when the current call returns unless it escapes
+     */
+    int box(int val) throws JILException {
+        return own(cell(val));
+    }
+
+    int newString(String str) throws JILException {
+        int ptr = memory.malloc(str.length());
+        memory.derefString(ptr, str);
+        return own(ptr);
+    }
+
+    private int cell(int val) throws JILException {
+        int ptr = memory.malloc(1);
+        memory.deref(ptr, val);
+        return ptr;
+    }
+
+    private int own(int ptr) {
+        if (owned == null)
+            owned = new int[16];
+        else if (ownedCount == owned.length)
+            owned = Arrays.copyOf(owned, ownedCount * 2);
+
+        owned[ownedCount++] = ptr;
+        return ptr;
+    }
+
+    /**
+     * Keeps the cell {@code raw} points to, if the call whose cells start at {@code mark} owns it, from being freed when the call returns;
+     * {@code defp} and {@code setp} store pointers with this, and it returns {@code raw}
+     */
+    private int escaped(int mark, int raw) {
+        for (int i = ownedCount - 1; i >= mark; i--) {
+            if (owned[i] == raw) {
+                owned[i] = 0;
+                break;
+            }
+        }
+
+        return raw;
+    }
+
+    /**
+     * {@code escaped} for the innermost compiled call
+     */
+    int escaped(int raw) {
+        return escaped(tierMark, raw);
+    }
+
+    /**
+     * Frees the cells of a returning call, which start at {@code mark}, except the one it returns a pointer to, those that escaped
+     * and those the function freed itself
+     */
+    private void release(int mark, int ret) throws JILException {
+        for (int i = mark; i < ownedCount; i++) {
+            int ptr = owned[i];
+            if (ptr != 0 && ptr != ret && memory.allocated(ptr))
+                memory.free(ptr);
+        }
+
+        ownedCount = mark;
+    }
+
+    /**
+     * Counts a call to {@code program}, compiling it once it is hot, and returns its compiled code if this call should use it
+     * <p>
+     * Compiled code recurses on the Java stack, so past {@code MAX_TIER_DEPTH} nested calls go back to the frame stack
+     */
+    private JILTiered tier(JILProgram program, String file, int showVars) {
+        JILTiered tiered = program.tiered;
+        if (tiered == null) {
+            if (!program.tierable || ++program.heat < JILProgram.TIER_THRESHOLD)
+                return null;
+
+            // interpreters sharing the program compile it once; the others see the result, or that it failed
+            synchronized (program) {
+                tiered = program.tiered;
+                if (tiered == null) {
+                    if (!program.tierable)
+                        return null;
+
+                    tiered = JILTierCompiler.compile(program, file);
+                    if (tiered == null) {
+                        program.tierable = false;
+                        return null;
+                    }
+                    program.tiered = tiered;
+                }
+            }
+        }
+
+        return showVars <= 0 && tierDepth < MAX_TIER_DEPTH ? tiered : null;
+    }
+
+    private int runTiered(JILTiered tiered, int[] args) throws JILException {
+        int outerMark = tierMark;
+        int mark = ownedCount;
+        tierMark = mark;
+        tierDepth++;
+        try {
+            int ret = tiered.run(this, args);
+            release(mark, ret);
+            return ret;
+        } finally {
+            if (ownedCount > mark)
+                ownedCount = mark;
+            tierDepth--;
+            tierMark = outerMark;
+        }
+    }
+
+    /**
+     * Calls the function {@code fname} from compiled code
+     */
+    int tierCall(String fname, int[] args) throws JILException {
+        JILFunction f = getFunc(fname);
+        if (f.program == null)
+            return f.run(fname, 0, memory, funcs, args);
+
+        f.checkArgs(args.length);
+        return execute(fname, 0, f.program, Map.of(), args);
+    }
+
+    private int eval(JILExpr expr, JILFrame frame) throws JILException {
+        if (estack.length < expr.depth())
+            estack = new int[Math.max(expr.depth(), estack.length * 2)];
+
+        return expr.eval(this, frame, estack);
+    }
+
+    static JILException located(Token ct, String file, JILException e) {
+        String[] s = ct.format(e.getMessage()).split(":", 2);
+        return new JILException(s[0] + " of " + file + ":" + s[1]);
+    }
+
+    /**
+     * Checks every function defined so far with {@code runtime.JILVerifier}, reporting all of their problems at once
+     */
+    public final void verify() throws JILException {
+        JILVerifier.verify(funcs);
+    }
+
     public int execute(String file, int showVars, boolean inFunction, String text) throws JILException {
-        return execute(file, showVars, inFunction, new Lexer(text).lex());
+        return execute(file, showVars, inFunction, new Lexer(text).lexStore());
+    }
+
+    /**
+     * Loads the file {@code file} with the source {@code text} like {@code execute}, but through {@code runtime.JILCache}
+     * <p>
+     * If the cache has the file's imports and functions from an earlier run of the same source, they are defined from there
+     * without lexing it; otherwise the file is executed as usual and then written to the cache
+     */
+    public final void load(String file, String text) throws JILException {
+        List<JILCache.Item> items = JILCache.read(text);
+        if (items != null) {
+            for (JILCache.Item item : items) {
+                try {
+                    if (item.module() != null)
+                        defModule(JILModules.load(item.module(), workingDir));
+                    else
+                        defineFunction(item.name(), item.body(), item.argc(), item.prepared());
+                } catch (JILException e) {
+                    throw located(item.site(), file, e);
+                }
+            }
+
+            return;
+        }
+
+        loaded = new ArrayList<>();
+        try {
+            execute(file, 0, false, text);
+            JILCache.write(text, loaded);
+        } finally {
+            loaded = null;
+        }
     }
 }
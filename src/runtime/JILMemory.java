@@ -2,35 +2,108 @@ package runtime;
 
 import runtime.errors.JILException;
 
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
 import java.util.Arrays;
-import java.util.HashMap;
 
 public class JILMemory {
-    private int[] memory;
-    private final HashMap<Integer, Allocation> allocations;
-    private int allocatedSpace;
+    // a handle is its generation shifted above its index into the allocation table
+    private static final int INDEX_BITS = 22;
+    private static final int INDEX_MASK = (1 << INDEX_BITS) - 1;
+    private static final int GENERATION_MASK = (1 << (31 - INDEX_BITS)) - 1;
+
+    private final JILStorage memory;
+    private long allocatedSpace;
+
+    // the allocation table; entry 0 is never used, so no handle is 0
+    private long[] starts;
+    private int[] sizes;
+    private int[] generations;
+    private boolean[] live;
+    // the free list block of each allocation
+    private int[] blocks;
+    private int tableSize;
+    private int liveCount;
+    // indexes of freed entries, reused last in first out
+    private int[] freeIndexes;
+    private int freeCount;
+
+    private final Allocator allocator;
+    private final Backend backend;
+    // only set for the free list allocator
+    private JILFreeList freeList;
+
+    private final Growth growth;
+    private final long initialSize;
+    private int grows;
+    private int shrinks;
+
+    private JILOutput output;
+    private File workingDir;
 
     public MemoryDebug debug;
 
-    private record Allocation(int start, int size) implements Comparable<AllocationEntry> {
-        int end() {
-            return start + size;
+    /**
+     * How allocations are placed in memory
+     * <p>
+     * {@code FREE_LIST} reuses freed space through size class free lists and never moves live data;
+     * {@code COMPACTING} bumps a pointer and slides every later allocation down whenever one is freed
+     */
+    public enum Allocator {
+        FREE_LIST,
+        COMPACTING;
+
+        public static Allocator parse(String name) {
+            return switch (name) {
+                case "freelist" -> FREE_LIST;
+                case "compact" -> COMPACTING;
+                default -> throw new IllegalArgumentException("unknown allocator '" + name + "'");
+            };
         }
+    }
 
-        @Override
-        public int compareTo(AllocationEntry o) {
-            return Integer.compare(start, o.start);
+    /**
+     * Where the cells of memory are kept
+     * <p>
+     * {@code HEAP} uses a single array, so memory is limited to about 2^31 cells;
+     * {@code OFF_HEAP} uses direct buffers outside the Java heap and can grow past that
+     */
+    public enum Backend {
+        HEAP(JILStorage.Heap.LIMIT),
+        OFF_HEAP(JILStorage.OffHeap.LIMIT);
+
+        private final long limit;
+
+        Backend(long limit) {
+            this.limit = limit;
         }
-    }
 
-    private record AllocationEntry(int id, int start, int size) implements Comparable<AllocationEntry> {
-        Allocation toAllocation() {
-            return new Allocation(start, size);
+        /**
+         * The most cells memory on this backend can hold
+         */
+        public long limit() {
+            return limit;
         }
+    }
 
+    /**
+     * How memory resizes itself once an allocation does not fit
+     * <p>
+     * Memory grows to {@code factor} times its size, or just enough for the allocation if that is more, but never past {@code max} cells;
+     * a {@code max} of 0 means there is no limit. With {@code shrink} set, memory halves again, down to its initial size,
+     * once frees leave less than a quarter of it in use and the top half empty
+     */
+    public record Growth(double factor, long max, boolean shrink) {
+        public static final Growth DEFAULT = new Growth(2, 0, false);
+    }
+
+    private record AllocationEntry(int id, long start, int size) implements Comparable<AllocationEntry> {
         @Override
         public int compareTo(AllocationEntry o) {
-            return Integer.compare(start, o.start);
+            return Long.compare(start, o.start);
         }
 
         @Override
@@ -39,194 +112,550 @@ public class JILMemory {
         }
     }
 
+    /**
+     * Dumps of memory, printed through its output so they come out in order with what the program printed
+     */
     public record MemoryDebug(JILMemory memref) {
-        public void printMemory() {
-            System.out.println("memory: " + Arrays.toString(memref.memory));
+        public void printMemory() throws JILException {
+            int[] cells = new int[(int) Math.min(memref.memory.size(), Integer.MAX_VALUE - 8)];
+            memref.memory.read(0, cells, cells.length);
+            memref.output.println("memory: " + Arrays.toString(cells));
         }
 
-        public void printAllocations() {
+        public void printAllocations() throws JILException {
             StringBuilder str = new StringBuilder();
 
-            str.append("total allocated space: ").append(memref.allocatedSpace).append(" of ").append(memref.memory.length).append("\n");
-
-            AllocationEntry[] entries = new AllocationEntry[memref.allocations.size()];
-            {
-                int i = 0;
-                for (Integer k : memref.allocations.keySet()) {
-                    Allocation a = memref.allocations.get(k);
-                    entries[i] = new AllocationEntry(k, a.start, a.size);
-                    i++;
-                }
-            }
+            str.append("total allocated space: ").append(memref.allocatedSpace).append(" of ").append(memref.memory.size())
+                    .append(" (").append(memref.allocator).append(", ").append(memref.backend).append(", grew ").append(memref.grows)
+                    .append(" times, shrank ").append(memref.shrinks).append(" times)\n");
 
-            Arrays.sort(entries);
-            for (AllocationEntry e : entries) str.append(e).append("\n");
+            for (AllocationEntry e : memref.liveEntries()) str.append(e).append("\n");
 
-            System.out.print(str);
+            memref.output.print(str.toString());
         }
     }
 
     public JILMemory(int size) {
-        memory = new int[size];
-        allocations = new HashMap<>();
+        this(size, Allocator.FREE_LIST);
+    }
+
+    public JILMemory(int size, Allocator allocator) {
+        this(size, allocator, Growth.DEFAULT, Backend.HEAP);
+    }
+
+    public JILMemory(long size, Allocator allocator, Growth growth, Backend backend) {
+        if (size < 0 || size > backend.limit())
+            throw new IllegalArgumentException(String.format("memory of %d cells does not fit the %s backend", size, backend));
+
+        memory = backend == Backend.OFF_HEAP ? new JILStorage.OffHeap(size) : new JILStorage.Heap(size);
         allocatedSpace = 0;
 
+        starts = new long[16];
+        sizes = new int[16];
+        generations = new int[16];
+        live = new boolean[16];
+        blocks = new int[16];
+        tableSize = 1;
+        liveCount = 0;
+        freeIndexes = new int[16];
+        freeCount = 0;
+        this.allocator = allocator;
+        this.backend = backend;
+        freeList = allocator == Allocator.FREE_LIST ? new JILFreeList(size) : null;
+        this.growth = growth;
+        initialSize = size;
+        grows = 0;
+        shrinks = 0;
+        output = JILOutput.stdout(true);
+
         debug = new MemoryDebug(this);
     }
 
-    private void upsize(int amount) throws JILException {
-        int[] newMemory = new int[memory.length + amount];
-        System.arraycopy(memory, 0, newMemory, 0, memory.length);
-        memory = newMemory;
+    private void upsize(long amount) throws JILException {
+        memory.resize(memory.size() + amount);
     }
 
-    private void downsize(int amount) throws JILException {
-        if (memory.length - amount < 0)
+    private void downsize(long amount) throws JILException {
+        if (memory.size() - amount < 0)
             throw new JILException("cannot downsize memory below zero");
-        memory = Arrays.copyOf(memory, memory.length - amount);
+        memory.resize(memory.size() - amount);
+    }
+
+    private long trailingFree() {
+        return freeList != null ? freeList.trailingFree() : memory.size() - allocatedSpace;
+    }
+
+    private void grow(int needed) throws JILException {
+        long size = memory.size();
+        long limit = memory.limit();
+        if (growth.max() > 0)
+            limit = Math.min(limit, growth.max());
+
+        long target = Math.max((long) (size * growth.factor()), size + needed - trailingFree());
+        target = Math.min(Math.max(target, 16), limit);
+        if (target - size + trailingFree() < needed)
+            throw new JILException("out of memory for allocation");
+
+        upsize(target - size);
+        if (freeList != null)
+            freeList.grow(memory.size());
+        grows++;
     }
 
-    private void clear(int start, int end) {
-        for (int i = start; i != end; i++)
-            memory[i] = 0;
+    private void shrink() throws JILException {
+        long size = memory.size();
+        long target = Math.max(initialSize, size / 2);
+        if (allocatedSpace >= size / 4 || target == size || size - trailingFree() > target)
+            return;
+
+        downsize(size - target);
+        if (freeList != null)
+            freeList.shrink(memory.size());
+        shrinks++;
     }
 
-    private int generateID() {
-        double dFirst = Math.random();
-        double dSecond = Math.random();
-        double dThird = Math.random();
+    /**
+     * The output that natives working on this memory print through
+     */
+    public JILOutput output() {
+        return output;
+    }
 
-        int first = (int)(dFirst * 100000);
-        int second = (int)(dSecond * 100000);
-        int third = (int)(dThird * 100000);
+    public void setOutput(JILOutput output) {
+        this.output = output;
+    }
 
-        if (first == 0)
-            first = 1;
-        if (second == 0)
-            second = 1;
-        if (third == 0)
-            third = 1;
+    /**
+     * @param workingDir the directory natives resolve relative paths against, or {@code null} for the working directory of the process
+     */
+    public void setWorkingDir(File workingDir) {
+        this.workingDir = workingDir;
+    }
 
-        int pt1 = first << second;
-        if (pt1 == 0)
-            pt1 = 1;
-        int pt2 = pt1 / third * first;
-        if (pt2 == 0)
-            pt2 = 1;
-        int pt3 = third & first;
-        if (pt3 == 0)
-            pt3 = 1;
+    /**
+     * The file {@code path} names for natives working on this memory, resolving a relative path against the run's working directory
+     */
+    public File resolve(String path) {
+        File file = new File(path);
+        return workingDir == null || file.isAbsolute() ? file : new File(workingDir, path);
+    }
 
-        return pt2 / pt3;
+    /**
+     * The number of cells memory currently has
+     */
+    public long capacity() {
+        return memory.size();
     }
 
-    private void checkID(int id) throws JILException {
-        if (!allocations.containsKey(id))
+    /**
+     * How many times memory has grown to fit an allocation
+     */
+    public int grows() {
+        return grows;
+    }
+
+    /**
+     * How many times memory has shrunk after allocations were freed
+     */
+    public int shrinks() {
+        return shrinks;
+    }
+
+    private void clear(long start, long end) {
+        memory.clear(start, end);
+    }
+
+    /**
+     * Returns the table index of a live handle; a handle whose entry has since been freed is caught by its generation no longer matching
+     */
+    private int index(int id) throws JILException {
+        int idx = id & INDEX_MASK;
+        if (id <= 0 || idx >= tableSize)
             throw new JILException(String.format("%d is not an allocation", id));
+        else if (!live[idx] || generations[idx] != id >>> INDEX_BITS)
+            throw new JILException(String.format("%d is no longer allocated", id));
+
+        return idx;
+    }
+
+    /**
+     * Whether {@code id} is an allocation that has not been freed
+     */
+    boolean allocated(int id) {
+        int idx = id & INDEX_MASK;
+        return id > 0 && idx < tableSize && live[idx] && generations[idx] == id >>> INDEX_BITS;
+    }
+
+    private int newIndex() throws JILException {
+        if (freeCount > 0)
+            return freeIndexes[--freeCount];
+
+        if (tableSize > INDEX_MASK)
+            throw new JILException("out of handles for allocation");
+
+        if (tableSize == starts.length) {
+            int length = Math.min(starts.length * 2, INDEX_MASK + 1);
+            starts = Arrays.copyOf(starts, length);
+            sizes = Arrays.copyOf(sizes, length);
+            generations = Arrays.copyOf(generations, length);
+            live = Arrays.copyOf(live, length);
+            blocks = Arrays.copyOf(blocks, length);
+        }
+
+        return tableSize++;
+    }
+
+    private AllocationEntry[] liveEntries() {
+        AllocationEntry[] entries = new AllocationEntry[liveCount];
+        int n = 0;
+        for (int i = 1; i < tableSize; i++) {
+            if (live[i])
+                entries[n++] = new AllocationEntry(generations[i] << INDEX_BITS | i, starts[i], sizes[i]);
+        }
+
+        Arrays.sort(entries);
+        return entries;
     }
 
     public int malloc(int size) throws JILException {
         if (size < 1)
             throw new JILException("size cannot be less than one");
-        else if (memory.length - allocatedSpace < size)
-            //upsize(memory.length - allocatedSpace - size);
-            throw new JILException("out of memory for allocation");
 
-        for (Integer id: allocations.keySet()) {
-            Allocation a = allocations.get(id);
+        long start;
+        int block = -1;
+        if (freeList != null) {
+            block = freeList.allocate(size);
+            if (block == -1) {
+                grow(size);
+                block = freeList.allocate(size);
+            }
+            start = freeList.start(block);
+        } else {
+            if (memory.size() - allocatedSpace < size)
+                grow(size);
+            start = allocatedSpace;
         }
 
-        int ptrID = generateID();
-
-        while (allocations.containsKey(ptrID))
-            ptrID = generateID();
-
-        allocations.put(ptrID, new Allocation(allocatedSpace, size));
+        int idx = newIndex();
+        starts[idx] = start;
+        sizes[idx] = size;
+        blocks[idx] = block;
+        live[idx] = true;
+        liveCount++;
         allocatedSpace += size;
 
-        return ptrID;
+        return generations[idx] << INDEX_BITS | idx;
     }
 
     public void free(int id) throws JILException {
-        checkID(id);
-
-        Allocation freedAlloc = allocations.remove(id);
-        allocatedSpace -= freedAlloc.size;
-
-        clear(freedAlloc.start, freedAlloc.end());
-
-        AllocationEntry[] existingAllocs = new AllocationEntry[allocations.size()];
-        {
-            int i = 0;
-            for (Integer k : allocations.keySet()) {
-                Allocation a = allocations.get(k);
-                existingAllocs[i] = new AllocationEntry(k, a.start, a.size);
-                i++;
-            }
+        int idx = index(id);
+        long freedStart = starts[idx];
+        int freedSize = sizes[idx];
+
+        live[idx] = false;
+        generations[idx] = (generations[idx] + 1) & GENERATION_MASK;
+        if (freeCount == freeIndexes.length)
+            freeIndexes = Arrays.copyOf(freeIndexes, freeIndexes.length * 2);
+        freeIndexes[freeCount++] = idx;
+        liveCount--;
+        allocatedSpace -= freedSize;
+
+        clear(freedStart, freedStart + freedSize);
+
+        if (freeList != null) {
+            freeList.release(blocks[idx]);
+            if (growth.shrink())
+                shrink();
+            return;
         }
 
-        Arrays.sort(existingAllocs);
+        AllocationEntry[] existingAllocs = liveEntries();
 
-        int prevEnd = freedAlloc.end();
+        long prevEnd = freedStart + freedSize;
         for (AllocationEntry ae : existingAllocs) {
             if (ae.start > prevEnd) {
                 if (ae.start - prevEnd == 1)
                     continue;
 
-                Allocation oldAlloc = ae.toAllocation();
+                long newStart = ae.start - prevEnd;
+                prevEnd = ae.start + ae.size;
 
-                int newStart = ae.start - prevEnd;
-                prevEnd = oldAlloc.end();
+                int[] prevArr = new int[ae.size];
+                memory.read(ae.start, prevArr, ae.size);
+                clear(ae.start, ae.start + ae.size);
+                memory.write(newStart, prevArr, ae.size);
 
-                if (oldAlloc.size == 1) {
-                    int prevValue = memory[oldAlloc.start];
-                    memory[oldAlloc.start] = 0;
-                    memory[newStart] = prevValue;
-                } else {
-                    int[] prevArr = Arrays.copyOfRange(memory, oldAlloc.start, oldAlloc.end());
-                    clear(oldAlloc.start, oldAlloc.end());
-                    System.arraycopy(prevArr, 0, memory, newStart, prevArr.length);
-                }
+                starts[ae.id & INDEX_MASK] = newStart;
+            }
+        }
+
+        if (growth.shrink())
+            shrink();
+    }
+
+    /**
+     * Returns how many cells the allocation {@code id} has, without copying it
+     */
+    public int sizeOf(int id) throws JILException {
+        return sizes[index(id)];
+    }
+
+    /**
+     * Returns the cell the allocation {@code id} starts at; this can change when the compacting allocator moves it
+     */
+    public long offsetOf(int id) throws JILException {
+        return starts[index(id)];
+    }
+
+    /**
+     * Returns a view of the allocation {@code id} that reads and writes its cells in place
+     */
+    public View view(int id) throws JILException {
+        index(id);
+        return new View(this, id);
+    }
+
+    private long cell(int id, int i) throws JILException {
+        int idx = index(id);
+        if (i < 0 || i >= sizes[idx])
+            throw new JILException(String.format("index %d is out of bounds for an allocation of size %d", i, sizes[idx]));
+
+        return starts[idx] + i;
+    }
+
+    private long range(int id, int from, int length) throws JILException {
+        int idx = index(id);
+        if (from < 0 || length < 0 || from + length > sizes[idx] || from + length < 0)
+            throw new JILException(String.format("range %d to %d is out of bounds for an allocation of size %d", from, from + length, sizes[idx]));
+
+        return starts[idx] + from;
+    }
+
+    /**
+     * A bounded window onto one allocation, for natives that scan or change large allocations without copying them out
+     * <p>
+     * The handle is checked on every access, so a view of a freed allocation fails instead of touching whatever replaced it,
+     * and a view follows its allocation if the compacting allocator moves it
+     */
+    public static final class View {
+        private final JILMemory memref;
+        private final int id;
+
+        private View(JILMemory memref, int id) {
+            this.memref = memref;
+            this.id = id;
+        }
+
+        public int handle() {
+            return id;
+        }
+
+        public int size() throws JILException {
+            return memref.sizeOf(id);
+        }
+
+        public long offset() throws JILException {
+            return memref.offsetOf(id);
+        }
+
+        public int get(int i) throws JILException {
+            return memref.memory.get(memref.cell(id, i));
+        }
+
+        public void set(int i, int value) throws JILException {
+            memref.memory.set(memref.cell(id, i), value);
+        }
+
+        /**
+         * Copies {@code length} cells starting at {@code from} into {@code dst} starting at {@code offset}
+         */
+        public void get(int from, int[] dst, int offset, int length) throws JILException {
+            long start = memref.range(id, from, length);
+            if (offset == 0) {
+                memref.memory.read(start, dst, length);
+            } else {
+                for (int i = 0; i < length; i++)
+                    dst[offset + i] = memref.memory.get(start + i);
+            }
+        }
 
-                allocations.put(ae.id, new Allocation(newStart, oldAlloc.size));
+        /**
+         * Copies {@code length} cells from {@code src} starting at {@code offset} into the view starting at {@code from}
+         */
+        public void set(int from, int[] src, int offset, int length) throws JILException {
+            long start = memref.range(id, from, length);
+            if (offset == 0) {
+                memref.memory.write(start, src, length);
+            } else {
+                for (int i = 0; i < length; i++)
+                    memref.memory.set(start + i, src[offset + i]);
             }
         }
+
+        public void fill(int value) throws JILException {
+            int size = size();
+            long start = memref.range(id, 0, size);
+            long end = start + size;
+            if (value == 0) {
+                memref.memory.clear(start, end);
+            } else {
+                for (long c = start; c < end; c++)
+                    memref.memory.set(c, value);
+            }
+        }
+
+        /**
+         * Appends every cell of the view to {@code out} as a character
+         */
+        public void appendTo(StringBuilder out) throws JILException {
+            int size = size();
+            long start = memref.range(id, 0, size);
+            for (int i = 0; i < size; i++)
+                out.append((char) memref.memory.get(start + i));
+        }
     }
 
     public void deref(int id, int value) throws JILException {
-        checkID(id);
-        memory[allocations.get(id).start] = value;
+        memory.set(starts[index(id)], value);
     }
 
     public void derefArray(int id, int[] arr) throws JILException {
-        checkID(id);
-        Allocation a = allocations.get(id);
-        for (int i = 0; i < a.size && i < arr.length; i++) memory[a.start + i] = arr[i];
+        int idx = index(id);
+        memory.write(starts[idx], arr, Math.min(sizes[idx], arr.length));
     }
 
     public void derefString(int id, String str) throws JILException {
-        checkID(id);
-        Allocation a = allocations.get(id);
+        int idx = index(id);
         byte[] bytes = str.getBytes();
-        for (int i = 0; i < a.size && i < str.length(); i++) memory[a.start + i] = bytes[i];
+        int[] cells = new int[Math.min(sizes[idx], str.length())];
+        for (int i = 0; i < cells.length; i++) cells[i] = bytes[i];
+        memory.write(starts[idx], cells, cells.length);
     }
 
     public int deref(int id) throws JILException {
-        checkID(id);
-        return memory[allocations.get(id).start];
+        return memory.get(starts[index(id)]);
     }
 
     public int[] derefArray(int id) throws JILException {
-        checkID(id);
-        Allocation a = allocations.get(id);
-        return Arrays.copyOfRange(memory, a.start, a.end());
+        int idx = index(id);
+        int[] arr = new int[sizes[idx]];
+        memory.read(starts[idx], arr, arr.length);
+        return arr;
     }
 
     public String derefString(int id) throws JILException {
-        checkID(id);
-        Allocation a = allocations.get(id);
-        StringBuilder str = new StringBuilder();
-        for (int n : Arrays.copyOfRange(memory, a.start, a.end())) str.append((char)n);
+        StringBuilder str = new StringBuilder(sizeOf(id));
+        view(id).appendTo(str);
         return str.toString();
     }
-}
\ No newline at end of file
+
+    /**
+     * Writes the allocation table and the contents of every live allocation, which is all a restore needs since free cells are always zero
+     */
+    void save(DataOutputStream out) throws IOException {
+        out.writeLong(memory.size());
+        out.writeLong(allocatedSpace);
+
+        out.writeInt(tableSize);
+        for (int i = 1; i < tableSize; i++) {
+            out.writeInt(generations[i]);
+            out.writeBoolean(live[i]);
+            if (live[i]) {
+                out.writeLong(starts[i]);
+                out.writeInt(sizes[i]);
+            }
+        }
+
+        out.writeInt(freeCount);
+        for (int i = 0; i < freeCount; i++)
+            out.writeInt(freeIndexes[i]);
+
+        int[] cells = new int[0];
+        for (int i = 1; i < tableSize; i++) {
+            if (!live[i])
+                continue;
+
+            if (cells.length < sizes[i])
+                cells = new int[sizes[i]];
+            memory.read(starts[i], cells, sizes[i]);
+            for (int j = 0; j < sizes[i]; j++)
+                out.writeInt(cells[j]);
+        }
+    }
+
+    /**
+     * Reads back what {@code save} wrote; memory must not have had anything allocated in it yet
+     */
+    void load(ByteBuffer in) throws JILException {
+        if (tableSize != 1)
+            throw new JILException("an image can only be restored into empty memory");
+
+        long size = in.getLong();
+        if (size > memory.limit() || (growth.max() > 0 && size > growth.max()))
+            throw new JILException(String.format("the image needs %d cells, which is more than memory can hold", size));
+        memory.resize(Math.max(size, memory.size()));
+        allocatedSpace = in.getLong();
+
+        int entries = in.getInt();
+        if (entries < 1 || entries > INDEX_MASK + 1)
+            throw new JILException("the image's allocation table is corrupt");
+
+        starts = new long[entries];
+        sizes = new int[entries];
+        generations = new int[entries];
+        live = new boolean[entries];
+        blocks = new int[entries];
+        tableSize = entries;
+        for (int i = 1; i < entries; i++) {
+            generations[i] = in.getInt();
+            live[i] = in.get() != 0;
+            if (live[i]) {
+                starts[i] = in.getLong();
+                sizes[i] = in.getInt();
+                liveCount++;
+            }
+        }
+
+        freeCount = in.getInt();
+        freeIndexes = new int[Math.max(freeCount, 16)];
+        for (int i = 0; i < freeCount; i++)
+            freeIndexes[i] = in.getInt();
+
+        Integer[] order = new Integer[liveCount];
+        int n = 0;
+        for (int i = 1; i < entries; i++) {
+            if (live[i])
+                order[n++] = i;
+        }
+        Arrays.sort(order, (a, b) -> Long.compare(starts[a], starts[b]));
+
+        // the image does not say which allocator wrote it, and a free list image can have gaps below its last allocation;
+        // the compacting allocator bumps from allocatedSpace, so its allocations are packed from the start of memory instead
+        if (freeList == null) {
+            allocatedSpace = 0;
+            for (int i : order) {
+                starts[i] = allocatedSpace;
+                allocatedSpace += sizes[i];
+            }
+        }
+
+        int[] cells = new int[0];
+        for (int i = 1; i < entries; i++) {
+            if (!live[i])
+                continue;
+
+            if (cells.length < sizes[i])
+                cells = new int[sizes[i]];
+            IntBuffer ints = in.asIntBuffer();
+            ints.get(cells, 0, sizes[i]);
+            in.position(in.position() + sizes[i] * Integer.BYTES);
+            memory.write(starts[i], cells, sizes[i]);
+        }
+
+        if (freeList != null) {
+            freeList = new JILFreeList(memory.size());
+            for (int i : order)
+                blocks[i] = freeList.claim(starts[i], sizes[i]);
+        }
+    }
+}
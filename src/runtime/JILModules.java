@@ -0,0 +1,339 @@
+package runtime;
+
+import runtime.errors.JILException;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.PrintWriter;
+import java.lang.reflect.Method;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.net.URLConnection;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The native modules loaded by every interpreter in the process
+ * <p>
+ * A module is loaded once, by one class loader, and the functions it exports are shared by every interpreter that imports it.
+ * The functions are only looked up and bound to a method handle the first time they are called.
+ * <p>
+ * {@code import "std/IO"} looks for, in order, {@code std/IO.class} in the working directory, {@code std/IO.class} in {@code ~/jil/lib},
+ * and the index {@code META-INF/jil/std/IO.natives} in the jars in {@code ~/jil/lib} or on the classpath.
+ * An index names the module's class on its first line as {@code class <name>}, followed by one {@code <jil name> <method> <argument count>}
+ * line per native, so a module in a jar is imported without loading its class at all.
+ * Running this class with a directory of compiled modules and a prefix writes their indexes, as {@code stdlib/install_stdlib.py --jar} does
+ */
+public final class JILModules {
+    private static final String INDEX_DIR = "META-INF/jil/";
+
+    /**
+     * Where a native is found: the method {@code method} with {@code argc} JIL arguments on the class {@code className}
+     */
+    record Native(String name, String className, String method, int argc, ClassLoader loader) {
+        Method resolve() throws JILException {
+            Class<?> cls;
+            try {
+                cls = Class.forName(className, true, loader);
+            } catch (ClassNotFoundException | LinkageError e) {
+                throw new JILException(e.toString());
+            }
+
+            for (Method m : cls.getMethods()) {
+                if (m.getName().equals(method) && m.getParameterCount() == argc + 2 && m.isAnnotationPresent(JILNative.class))
+                    return m;
+            }
+
+            throw new JILException(String.format("imported function '%s' was not found in '%s'", name, className));
+        }
+    }
+
+    /**
+     * A module loaded from a class file, as it was when the file was last modified at {@code modified}
+     */
+    private record ClassFileModule(long modified, List<Map.Entry<String, JILFunction>> exports) {
+    }
+
+    /**
+     * One loader over the jars in {@code ~/jil/lib}, which are listed with their sizes and modification times in {@code stamp}
+     */
+    private record Library(String stamp, URLClassLoader loader) {
+    }
+
+    // keyed by the absolute path of the class file; a changed file replaces its entry, so the old class loader can be collected
+    // once no interpreter uses its functions
+    private static final ConcurrentHashMap<String, ClassFileModule> classFiles = new ConcurrentHashMap<>();
+    // keyed by the module path, and emptied whenever the jars in ~/jil/lib change
+    private static final ConcurrentHashMap<String, List<Map.Entry<String, JILFunction>>> indexed = new ConcurrentHashMap<>();
+    private static volatile Library library = null;
+
+    private JILModules() {
+    }
+
+    private static File libraryDir() {
+        return new File(System.getProperty("user.home") + File.separator + "jil" + File.separator + "lib");
+    }
+
+    /**
+     * Loads the module {@code modPath}, returning the name and function of each native it exports in the order it declares them
+     */
+    public static List<Map.Entry<String, JILFunction>> load(String modPath) throws JILException {
+        return load(modPath, null);
+    }
+
+    /**
+     * @param workingDir the directory local modules are looked for in, or {@code null} for the working directory of the process
+     */
+    public static List<Map.Entry<String, JILFunction>> load(String modPath, File workingDir) throws JILException {
+        File localModule = new File(workingDir, modPath + ".class");
+        if (localModule.exists())
+            return loadClassFile(localModule);
+
+        File libModule = new File(libraryDir(), modPath + ".class");
+        if (libModule.exists())
+            return loadClassFile(libModule);
+
+        List<Map.Entry<String, JILFunction>> module = loadIndexed(modPath);
+        if (module == null)
+            throw new JILException(String.format("module '%s' not found", modPath));
+
+        return module;
+    }
+
+    /**
+     * Loads the module compiled to the class file {@code path}, again only if the file has changed since it was last loaded
+     */
+    public static List<Map.Entry<String, JILFunction>> loadClassFile(File path) throws JILException {
+        File file = path.getAbsoluteFile();
+        String key = file.getPath();
+        long modified = file.lastModified();
+
+        ClassFileModule module = classFiles.get(key);
+        if (module != null && module.modified() == modified)
+            return module.exports();
+
+        synchronized (JILModules.class) {
+            module = classFiles.get(key);
+            if (module != null && module.modified() == modified)
+                return module.exports();
+
+            String modclass = file.getName();
+            if (modclass.endsWith(".class"))
+                modclass = modclass.substring(0, modclass.length() - 6);
+
+            URL url;
+            try {
+                url = file.getParentFile().toURI().toURL();
+            } catch (MalformedURLException e) {
+                throw new JILException(e.getMessage());
+            }
+
+            ClassLoader cl = new URLClassLoader(new URL[]{url});
+
+            Class<?> cls;
+            try {
+                cls = cl.loadClass(modclass);
+            } catch (ClassNotFoundException e) {
+                throw new JILException(e.toString());
+            }
+
+            ArrayList<Map.Entry<String, JILFunction>> exports = new ArrayList<>();
+            for (Method m : cls.getMethods()) {
+                JILNative jilNative = m.getAnnotation(JILNative.class);
+
+                if (jilNative != null) {
+                    String fname = exportName(jilNative, m);
+                    exports.add(Map.entry(fname, new JILFunction(new Native(fname, cls.getName(), m.getName(), m.getParameterCount() - 2, cl))));
+                }
+            }
+
+            module = new ClassFileModule(modified, Collections.unmodifiableList(exports));
+            classFiles.put(key, module);
+            return module.exports();
+        }
+    }
+
+    private static List<Map.Entry<String, JILFunction>> loadIndexed(String modPath) throws JILException {
+        File[] jars = libraryJars();
+        String stamp = stamp(jars);
+
+        Library lib = library;
+        if (lib != null && lib.stamp().equals(stamp)) {
+            List<Map.Entry<String, JILFunction>> module = indexed.get(modPath);
+            if (module != null)
+                return module;
+        }
+
+        synchronized (JILModules.class) {
+            lib = library;
+            if (lib == null || !lib.stamp().equals(stamp)) {
+                // the old loader is not closed, since interpreters may still bind natives through it
+                lib = new Library(stamp, new URLClassLoader(urls(jars), JILModules.class.getClassLoader()));
+                indexed.clear();
+                library = lib;
+            }
+
+            List<Map.Entry<String, JILFunction>> module = indexed.get(modPath);
+            if (module != null)
+                return module;
+
+            URL index = lib.loader().getResource(INDEX_DIR + modPath + ".natives");
+            if (index == null)
+                return null;
+
+            module = Collections.unmodifiableList(readIndex(modPath, index, lib.loader()));
+            indexed.put(modPath, module);
+            return module;
+        }
+    }
+
+    /**
+     * The jars in {@code ~/jil/lib}, in name order
+     */
+    private static File[] libraryJars() {
+        File[] jars = libraryDir().listFiles((dir, name) -> name.endsWith(".jar"));
+        if (jars == null)
+            return new File[0];
+
+        Arrays.sort(jars);
+        return jars;
+    }
+
+    private static String stamp(File[] jars) {
+        StringBuilder stamp = new StringBuilder();
+        for (File jar : jars)
+            stamp.append(jar.getName()).append(':').append(jar.length()).append(':').append(jar.lastModified()).append('\n');
+
+        return stamp.toString();
+    }
+
+    private static URL[] urls(File[] jars) throws JILException {
+        URL[] urls = new URL[jars.length];
+        for (int i = 0; i < jars.length; i++) {
+            try {
+                urls[i] = jars[i].toURI().toURL();
+            } catch (MalformedURLException e) {
+                throw new JILException(e.getMessage());
+            }
+        }
+
+        return urls;
+    }
+
+    private static ArrayList<Map.Entry<String, JILFunction>> readIndex(String modPath, URL index, ClassLoader cl) throws JILException {
+        ArrayList<Map.Entry<String, JILFunction>> exports = new ArrayList<>();
+
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(openUncached(index), StandardCharsets.UTF_8))) {
+            String className = null;
+            int ln = 0;
+
+            for (String line; (line = reader.readLine()) != null; ) {
+                ln++;
+                line = line.strip();
+                if (line.isEmpty() || line.startsWith("#"))
+                    continue;
+
+                String[] parts = line.split("\\s+");
+                if (className == null) {
+                    if (parts.length != 2 || !parts[0].equals("class"))
+                        throw new JILException(String.format("index of module '%s' must start with 'class <name>', but line %d is '%s'", modPath, ln, line));
+
+                    className = parts[1];
+                    continue;
+                }
+
+                if (parts.length != 3)
+                    throw new JILException(String.format("line %d of the index of module '%s' is not '<name> <method> <argument count>'", ln, modPath));
+
+                int argc;
+                try {
+                    argc = Integer.parseInt(parts[2]);
+                } catch (NumberFormatException e) {
+                    throw new JILException(String.format("line %d of the index of module '%s' has an invalid argument count", ln, modPath));
+                }
+
+                exports.add(Map.entry(parts[0], new JILFunction(new Native(parts[0], className, parts[1], argc, cl))));
+            }
+        } catch (IOException e) {
+            throw new JILException(String.format("could not read the index of module '%s': %s", modPath, e.getMessage()));
+        }
+
+        return exports;
+    }
+
+    /**
+     * Opens {@code url} without the JVM's cache of opened jars, which would keep reading a jar that has since been replaced
+     */
+    private static InputStream openUncached(URL url) throws IOException {
+        URLConnection connection = url.openConnection();
+        connection.setUseCaches(false);
+        return connection.getInputStream();
+    }
+
+    private static String exportName(JILNative jilNative, Method m) {
+        String fname = jilNative.value().trim();
+        return fname.isEmpty() ? m.getName() : fname;
+    }
+
+    /**
+     * Writes the index of every module class in {@code classes} to {@code META-INF/jil/<prefix>/<class>.natives} inside it
+     */
+    public static void writeIndexes(File classes, String prefix) throws JILException {
+        File[] files = classes.listFiles((dir, name) -> name.endsWith(".class") && !name.contains("$"));
+        if (files == null)
+            throw new JILException(String.format("'%s' is not a directory", classes));
+
+        File indexDir = new File(classes, INDEX_DIR + prefix);
+        if (!indexDir.isDirectory() && !indexDir.mkdirs())
+            throw new JILException(String.format("could not create '%s'", indexDir));
+
+        try (URLClassLoader cl = new URLClassLoader(new URL[]{classes.toURI().toURL()}, JILModules.class.getClassLoader())) {
+            for (File file : files) {
+                String className = file.getName().substring(0, file.getName().length() - 6);
+                Class<?> cls = cl.loadClass(className);
+
+                ArrayList<String> lines = new ArrayList<>();
+                lines.add("class " + cls.getName());
+                for (Method m : cls.getMethods()) {
+                    JILNative jilNative = m.getAnnotation(JILNative.class);
+                    if (jilNative != null)
+                        lines.add(String.format("%s %s %d", exportName(jilNative, m), m.getName(), m.getParameterCount() - 2));
+                }
+
+                if (lines.size() == 1)
+                    continue;
+
+                try (PrintWriter out = new PrintWriter(Files.newBufferedWriter(new File(indexDir, className + ".natives").toPath(), StandardCharsets.UTF_8))) {
+                    for (String line : lines)
+                        out.println(line);
+                }
+            }
+        } catch (IOException | ClassNotFoundException | LinkageError e) {
+            throw new JILException(String.format("could not index '%s': %s", classes, e));
+        }
+    }
+
+    public static void main(String[] args) {
+        if (args.length != 2) {
+            System.err.println("usage: runtime.JILModules <directory of compiled modules> <module prefix>");
+            System.exit(1);
+        }
+
+        try {
+            writeIndexes(new File(args[0]), args[1]);
+        } catch (JILException e) {
+            System.err.println(e.getMessage());
+            System.exit(1);
+        }
+    }
+}
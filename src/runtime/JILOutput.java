@@ -0,0 +1,202 @@
+package runtime;
+
+import runtime.errors.JILException;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * The output natives print through, reached from a native with {@code memory.output()}
+ * <p>
+ * Numbers and the cells of allocations are encoded as UTF-8 straight into a byte buffer, which is written out once it fills up,
+ * when {@code flush} is called, and when the interpreter finishes running {@code main}. An unbuffered output writes after every print
+ */
+public final class JILOutput {
+    private static final byte[] NEWLINE = System.lineSeparator().getBytes(StandardCharsets.UTF_8);
+    // how many cells are read from memory at a time when printing an allocation
+    private static final int CELL_CHUNK = 256;
+
+    private final OutputStream sink;
+    private final byte[] buffer;
+    private final boolean buffered;
+    private int size;
+    // the high half of a surrogate pair whose low half has not been printed yet
+    private char pendingHigh;
+
+    private final int[] cells;
+
+    public JILOutput(OutputStream sink, int capacity, boolean buffered) {
+        this.sink = sink;
+        buffer = new byte[Math.max(capacity, 16)];
+        this.buffered = buffered;
+        size = 0;
+        pendingHigh = 0;
+        cells = new int[CELL_CHUNK];
+    }
+
+    /**
+     * An output over {@code System.out} as it is when this is called
+     */
+    public static JILOutput stdout(boolean buffered) {
+        return new JILOutput(System.out, 1 << 16, buffered);
+    }
+
+    private void ensure(int n) throws JILException {
+        if (buffer.length - size < n)
+            drain();
+    }
+
+    private void drain() throws JILException {
+        if (size == 0)
+            return;
+
+        try {
+            sink.write(buffer, 0, size);
+        } catch (IOException e) {
+            throw new JILException("could not write output: " + e.getMessage());
+        }
+        size = 0;
+    }
+
+    private void end() throws JILException {
+        if (!buffered)
+            flush();
+    }
+
+    private void put(char c) throws JILException {
+        ensure(4);
+
+        if (pendingHigh != 0) {
+            char high = pendingHigh;
+            pendingHigh = 0;
+
+            if (Character.isLowSurrogate(c)) {
+                int cp = Character.toCodePoint(high, c);
+                buffer[size++] = (byte) (0xF0 | (cp >> 18));
+                buffer[size++] = (byte) (0x80 | ((cp >> 12) & 0x3F));
+                buffer[size++] = (byte) (0x80 | ((cp >> 6) & 0x3F));
+                buffer[size++] = (byte) (0x80 | (cp & 0x3F));
+                return;
+            }
+
+            buffer[size++] = '?';
+            ensure(4);
+        }
+
+        if (c < 0x80) {
+            buffer[size++] = (byte) c;
+        } else if (c < 0x800) {
+            buffer[size++] = (byte) (0xC0 | (c >> 6));
+            buffer[size++] = (byte) (0x80 | (c & 0x3F));
+        } else if (Character.isHighSurrogate(c)) {
+            pendingHigh = c;
+        } else if (Character.isLowSurrogate(c)) {
+            buffer[size++] = '?';
+        } else {
+            buffer[size++] = (byte) (0xE0 | (c >> 12));
+            buffer[size++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+            buffer[size++] = (byte) (0x80 | (c & 0x3F));
+        }
+    }
+
+    private void putInt(int value) throws JILException {
+        ensure(11);
+
+        if (value == Integer.MIN_VALUE) {
+            byte[] digits = "-2147483648".getBytes(StandardCharsets.US_ASCII);
+            System.arraycopy(digits, 0, buffer, size, digits.length);
+            size += digits.length;
+            return;
+        }
+
+        if (value < 0) {
+            buffer[size++] = '-';
+            value = -value;
+        }
+
+        int digits = 1;
+        for (int n = value; n >= 10; n /= 10)
+            digits++;
+
+        for (int i = size + digits - 1; i >= size; i--) {
+            buffer[i] = (byte) ('0' + value % 10);
+            value /= 10;
+        }
+        size += digits;
+    }
+
+    private void putNewline() throws JILException {
+        ensure(NEWLINE.length);
+        System.arraycopy(NEWLINE, 0, buffer, size, NEWLINE.length);
+        size += NEWLINE.length;
+    }
+
+    private void putCells(JILMemory memory, int id) throws JILException {
+        JILMemory.View view = memory.view(id);
+        int total = view.size();
+
+        for (int from = 0; from < total; from += CELL_CHUNK) {
+            int n = Math.min(CELL_CHUNK, total - from);
+            view.get(from, cells, 0, n);
+            for (int i = 0; i < n; i++)
+                put((char) cells[i]);
+        }
+    }
+
+    public void print(int value) throws JILException {
+        putInt(value);
+        end();
+    }
+
+    public void println(int value) throws JILException {
+        putInt(value);
+        putNewline();
+        end();
+    }
+
+    /**
+     * Prints each cell of the allocation {@code id} as a character
+     */
+    public void printCells(JILMemory memory, int id) throws JILException {
+        putCells(memory, id);
+        end();
+    }
+
+    public void printCellsln(JILMemory memory, int id) throws JILException {
+        putCells(memory, id);
+        putNewline();
+        end();
+    }
+
+    public void print(String str) throws JILException {
+        for (int i = 0; i < str.length(); i++)
+            put(str.charAt(i));
+        end();
+    }
+
+    public void println(String str) throws JILException {
+        for (int i = 0; i < str.length(); i++)
+            put(str.charAt(i));
+        putNewline();
+        end();
+    }
+
+    /**
+     * Writes out everything printed so far
+     */
+    public void flush() throws JILException {
+        if (pendingHigh != 0) {
+            pendingHigh = 0;
+            put('?');
+        }
+
+        drain();
+
+        try {
+            sink.flush();
+        } catch (IOException e) {
+            throw new JILException("could not write output: " + e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,197 @@
+package runtime;
+
+import lexer.Token;
+import lexer.TokenStore;
+
+/**
+ * The compiled form of a function body, produced by {@code runtime.JILCompiler}
+ * <p>
+ * Each instruction is an opcode followed by its operands in {@code code};
+ * jump targets are indexes into {@code code}, variables are frame slots, and names, strings and expressions are indexes into their pools
+ */
+public final class JILProgram {
+    // GOTO target
+    static final int GOTO = 0;
+    // DEF, DEFP, SET, SETP, DEF_LOCAL, SET_LOCAL slot expr
+    static final int DEF = 1;
+    static final int DEFP = 2;
+    static final int SET = 3;
+    static final int SETP = 4;
+    // DEFS, SETS slot string
+    static final int DEFS = 5;
+    static final int SETS = 6;
+    // CALL func outSlot outMode argc argSlots...
+    static final int CALL = 7;
+    // RET expr
+    static final int RET = 8;
+    // JMPZ, JMPNZ expr target
+    static final int JMPZ = 9;
+    static final int JMPNZ = 10;
+    // CATCH label target
+    static final int CATCH = 11;
+    static final int ENDCATCH = 12;
+    static final int ENDCATCHES = 13;
+    // THROW message
+    static final int THROW = 14;
+    static final int DEF_LOCAL = 15;
+    static final int SET_LOCAL = 16;
+    // the superinstructions, fused from common line patterns by runtime.JILCompiler
+    // INC, INC_BOXED slot delta: 'set x x 1 +'
+    static final int INC = 17;
+    static final int INC_BOXED = 18;
+    // JMP_CMP cmp left right target, JMP_CMPK cmp left literal target: 'if x y <' and 'if x 10 <' with or without a 'goto' after
+    // left and right are a slot, or the complement of a boxed slot whose cell is compared
+    static final int JMP_CMP = 19;
+    static final int JMP_CMPK = 20;
+    // CALL_IF, CALL_IFN func outSlot outMode argc argSlots... expr: 'if' or 'ifn' followed by a 'call'
+    static final int CALL_IF = 21;
+    static final int CALL_IFN = 22;
+
+    // indexes into fired
+    static final int FUSED_INC = 0;
+    static final int FUSED_BRANCH = 1;
+    static final int FUSED_CALL = 2;
+
+    // how many calls and backward jumps a program runs on the interpreter before it is compiled by runtime.JILTierCompiler
+    static final int TIER_THRESHOLD = 1000;
+
+    static final int OUT_NONE = 0;
+    static final int OUT_INTO = 1;
+    static final int OUT_INTOP = 2;
+    static final int OUT_INTO_LOCAL = 3;
+
+    final int[] code;
+    // the function body, and the line of it each instruction comes from
+    final TokenStore body;
+    final int[] sites;
+    final String[] names;
+    final String[] strings;
+    final JILExpr[] exprs;
+    final String[] slotNames;
+    final boolean[] slotBoxed;
+    // the slot of each '$n' argument, or -1 if the body never uses it
+    final int[] paramSlots;
+
+    // The fields below are shared by every interpreter running this program, such as concurrent runs of a runtime.JILScript.
+    // heat and fired are counted without locking, so runs at once can lose counts; that only delays tiering a little
+    // or under-reports the counts -stats prints, so they are left approximate rather than made atomic on the hottest paths
+
+    // calls and backward jumps counted towards TIER_THRESHOLD
+    int heat;
+    // false once tiering is turned off for this program or it fails to compile
+    volatile boolean tierable;
+    // set once, by the first interpreter to compile the program
+    volatile JILTiered tiered;
+
+    // how many times each kind of superinstruction has run
+    final long[] fired;
+    // set by runtime.JILVerifier once every call in the program is known to pass the right amount of arguments
+    volatile boolean verified;
+
+    JILProgram(int[] code, TokenStore body, int[] sites, String[] names, String[] strings, JILExpr[] exprs, String[] slotNames, boolean[] slotBoxed, int[] paramSlots) {
+        this.code = code;
+        this.body = body;
+        this.sites = sites;
+        this.names = names;
+        this.strings = strings;
+        this.exprs = exprs;
+        this.slotNames = slotNames;
+        this.slotBoxed = slotBoxed;
+        this.paramSlots = paramSlots;
+        heat = 0;
+        tierable = true;
+        tiered = null;
+        fired = new long[3];
+        verified = false;
+    }
+
+    public int length() {
+        return code.length;
+    }
+
+    /**
+     * The token errors from the instruction at {@code pc} are located at
+     */
+    Token site(int pc) {
+        return body.get(sites[pc], 0);
+    }
+
+    private static String opName(int op) {
+        return switch (op) {
+            case GOTO -> "goto";
+            case DEF -> "def";
+            case DEFP -> "defp";
+            case SET -> "set";
+            case SETP -> "setp";
+            case DEFS -> "defs";
+            case SETS -> "sets";
+            case CALL -> "call";
+            case RET -> "ret";
+            case JMPZ -> "jmpz";
+            case JMPNZ -> "jmpnz";
+            case CATCH -> "catch";
+            case ENDCATCH -> "endcatch";
+            case ENDCATCHES -> "endcatches";
+            case THROW -> "throw";
+            case DEF_LOCAL -> "def.l";
+            case SET_LOCAL -> "set.l";
+            case INC -> "inc";
+            case INC_BOXED -> "inc.b";
+            case JMP_CMP -> "jmp.cmp";
+            case JMP_CMPK -> "jmp.cmpk";
+            case CALL_IF -> "call.if";
+            case CALL_IFN -> "call.ifn";
+            default -> "?" + op;
+        };
+    }
+
+    static int width(int[] code, int pc) {
+        return switch (code[pc]) {
+            case ENDCATCH, ENDCATCHES -> 1;
+            case GOTO, RET, THROW -> 2;
+            case JMP_CMP, JMP_CMPK -> 5;
+            case CALL -> 5 + code[pc + 4];
+            case CALL_IF, CALL_IFN -> 6 + code[pc + 4];
+            default -> 3;
+        };
+    }
+
+    /**
+     * How many superinstructions this program has and how often they ran, or {@code null} if it has none
+     */
+    public String fusionStats() {
+        int[] counts = new int[fired.length];
+        for (int pc = 0; pc < code.length; pc += width(code, pc)) {
+            switch (code[pc]) {
+                case INC, INC_BOXED -> counts[FUSED_INC]++;
+                case JMP_CMP, JMP_CMPK -> counts[FUSED_BRANCH]++;
+                case CALL_IF, CALL_IFN -> counts[FUSED_CALL]++;
+            }
+        }
+
+        if (counts[FUSED_INC] + counts[FUSED_BRANCH] + counts[FUSED_CALL] == 0)
+            return null;
+
+        return String.format("%d increments ran %d times, %d compare-and-branches ran %d times, %d conditional calls ran %d times",
+                counts[FUSED_INC], fired[FUSED_INC], counts[FUSED_BRANCH], fired[FUSED_BRANCH], counts[FUSED_CALL], fired[FUSED_CALL]);
+    }
+
+    public String disassemble() {
+        StringBuilder str = new StringBuilder();
+
+        for (int pc = 0; pc < code.length; pc += width(code, pc)) {
+            str.append(String.format("%4d  %-10s", pc, opName(code[pc])));
+            for (int i = 1; i < width(code, pc); i++)
+                str.append(' ').append(code[pc + i]);
+            str.append('\n');
+        }
+
+        for (int i = 0; i < slotNames.length; i++)
+            str.append(String.format("  s%d: %s%s\n", i, slotNames[i], slotBoxed[i] ? " (boxed)" : ""));
+
+        for (int i = 0; i < exprs.length; i++)
+            str.append(String.format("  e%d: %s\n", i, exprs[i]));
+
+        return str.toString();
+    }
+}
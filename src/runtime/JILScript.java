@@ -0,0 +1,42 @@
+package runtime;
+
+import runtime.errors.JILException;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * A file compiled by {@code runtime.JILEngine}, which can be run any number of times, from any number of threads at once
+ * <p>
+ * Each run gets its own interpreter, and its own copy of the function table that natives are handed, so the program state runs share
+ * is what the caller shares through the memory they pass in, and the functions themselves. Runs do change the functions: how often each
+ * one has been called, which decides when it is compiled to bytecode, the compiled code, and the counts of superinstructions run.
+ * The counts are kept without locking and are approximate when runs overlap, and a function is compiled once, by whichever run gets there first
+ */
+public final class JILScript {
+    private final String name;
+    private final Map<String, JILFunction> funcs;
+
+    JILScript(String name, Map<String, JILFunction> funcs) {
+        this.name = name;
+        this.funcs = Map.copyOf(funcs);
+    }
+
+    public String name() {
+        return name;
+    }
+
+    /**
+     * Runs the script's {@code main} function in {@code memory}, printing through {@code memory.output()}
+     *
+     * @return what {@code main} returned
+     */
+    public int run(JILMemory memory, int... args) throws JILException {
+        return new JILInterpreter(memory, new HashMap<>(funcs)).runMain(false, args);
+    }
+
+    @Override
+    public String toString() {
+        return String.format("script(%s, %d functions)", name, funcs.size());
+    }
+}
@@ -0,0 +1,169 @@
+package runtime;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.util.Arrays;
+
+/**
+ * The cells behind a {@code runtime.JILMemory}, addressed by long offsets
+ * <p>
+ * {@code Heap} keeps the cells in a single {@code int[]}, which limits it to what one array can hold;
+ * {@code OffHeap} keeps them in direct buffers outside the Java heap, so large memories are not scanned or copied by the garbage collector
+ */
+interface JILStorage {
+    long size();
+
+    // the most cells this storage can be resized to
+    long limit();
+
+    int get(long cell);
+
+    void set(long cell, int value);
+
+    void read(long start, int[] dst, int length);
+
+    void write(long start, int[] src, int length);
+
+    void clear(long start, long end);
+
+    void resize(long size);
+
+    final class Heap implements JILStorage {
+        // the largest arrays cannot be allocated on every VM
+        static final long LIMIT = Integer.MAX_VALUE - 8;
+
+        private int[] cells;
+
+        Heap(long size) {
+            cells = new int[Math.toIntExact(size)];
+        }
+
+        @Override
+        public long size() {
+            return cells.length;
+        }
+
+        @Override
+        public long limit() {
+            return LIMIT;
+        }
+
+        @Override
+        public int get(long cell) {
+            return cells[(int) cell];
+        }
+
+        @Override
+        public void set(long cell, int value) {
+            cells[(int) cell] = value;
+        }
+
+        @Override
+        public void read(long start, int[] dst, int length) {
+            System.arraycopy(cells, (int) start, dst, 0, length);
+        }
+
+        @Override
+        public void write(long start, int[] src, int length) {
+            System.arraycopy(src, 0, cells, (int) start, length);
+        }
+
+        @Override
+        public void clear(long start, long end) {
+            Arrays.fill(cells, (int) start, (int) end, 0);
+        }
+
+        @Override
+        public void resize(long size) {
+            cells = Arrays.copyOf(cells, Math.toIntExact(size));
+        }
+    }
+
+    final class OffHeap implements JILStorage {
+        // each chunk holds 2^20 cells, 4 MiB
+        private static final int CHUNK_BITS = 20;
+        private static final int CHUNK_SIZE = 1 << CHUNK_BITS;
+        private static final int CHUNK_MASK = CHUNK_SIZE - 1;
+        static final long LIMIT = (long) (Integer.MAX_VALUE - 8) << CHUNK_BITS;
+
+        private IntBuffer[] chunks;
+        private long size;
+
+        OffHeap(long size) {
+            chunks = new IntBuffer[0];
+            this.size = 0;
+            resize(size);
+        }
+
+        private static IntBuffer allocate() {
+            return ByteBuffer.allocateDirect(CHUNK_SIZE * Integer.BYTES).order(ByteOrder.nativeOrder()).asIntBuffer();
+        }
+
+        @Override
+        public long size() {
+            return size;
+        }
+
+        @Override
+        public long limit() {
+            return LIMIT;
+        }
+
+        @Override
+        public int get(long cell) {
+            return chunks[(int) (cell >>> CHUNK_BITS)].get((int) cell & CHUNK_MASK);
+        }
+
+        @Override
+        public void set(long cell, int value) {
+            chunks[(int) (cell >>> CHUNK_BITS)].put((int) cell & CHUNK_MASK, value);
+        }
+
+        @Override
+        public void read(long start, int[] dst, int length) {
+            int done = 0;
+            while (done < length) {
+                long cell = start + done;
+                int offset = (int) cell & CHUNK_MASK;
+                int n = Math.min(length - done, CHUNK_SIZE - offset);
+                chunks[(int) (cell >>> CHUNK_BITS)].get(offset, dst, done, n);
+                done += n;
+            }
+        }
+
+        @Override
+        public void write(long start, int[] src, int length) {
+            int done = 0;
+            while (done < length) {
+                long cell = start + done;
+                int offset = (int) cell & CHUNK_MASK;
+                int n = Math.min(length - done, CHUNK_SIZE - offset);
+                chunks[(int) (cell >>> CHUNK_BITS)].put(offset, src, done, n);
+                done += n;
+            }
+        }
+
+        @Override
+        public void clear(long start, long end) {
+            for (long cell = start; cell < end; cell++)
+                set(cell, 0);
+        }
+
+        @Override
+        public void resize(long size) {
+            int count = (int) ((size + CHUNK_SIZE - 1) >>> CHUNK_BITS);
+            int old = chunks.length;
+
+            // cells past the old size must read as zero, but a kept chunk may still hold values from before a shrink
+            if (size > this.size && old > 0)
+                clear(this.size, Math.min(size, (long) old << CHUNK_BITS));
+
+            chunks = Arrays.copyOf(chunks, count);
+            for (int i = old; i < count; i++)
+                chunks[i] = allocate();
+
+            this.size = size;
+        }
+    }
+}
@@ -0,0 +1,703 @@
+package runtime;
+
+import java.lang.invoke.MethodHandles;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+
+/**
+ * Compiles a hot {@code runtime.JILProgram} into a hidden class extending {@code runtime.JILTiered}
+ * <p>
+ * Each frame slot becomes a pair of JVM locals, its value and whether it is defined, and each instruction becomes the bytecode
+ * the interpreter would have run for it: expressions, jumps, {@code def}, {@code set}, superinstructions and calls, which go back through
+ * {@code JILInterpreter.tierCall}. Bodies with {@code catch} scopes are left to the interpreter
+ * <p>
+ * The class file is written by hand at version 49, the last version the JVM verifies without stack map frames
+ */
+final class JILTierCompiler {
+    private static final int LCONST_0 = 0x09;
+    private static final int LCONST_1 = 0x0a;
+    private static final int ICONST_0 = 0x03;
+    private static final int BIPUSH = 0x10;
+    private static final int SIPUSH = 0x11;
+    private static final int LDC = 0x12;
+    private static final int LDC_W = 0x13;
+    private static final int ILOAD = 0x15;
+    private static final int LLOAD = 0x16;
+    private static final int ALOAD = 0x19;
+    private static final int ALOAD_0 = 0x2a;
+    private static final int IALOAD = 0x2e;
+    private static final int ISTORE = 0x36;
+    private static final int LSTORE = 0x37;
+    private static final int ASTORE = 0x3a;
+    private static final int IASTORE = 0x4f;
+    private static final int POP = 0x57;
+    private static final int DUP = 0x59;
+    private static final int IADD = 0x60;
+    private static final int LADD = 0x61;
+    private static final int ISUB = 0x64;
+    private static final int IMUL = 0x68;
+    private static final int IDIV = 0x6c;
+    private static final int IREM = 0x70;
+    private static final int IFEQ = 0x99;
+    private static final int IFNE = 0x9a;
+    private static final int IF_ICMPEQ = 0x9f;
+    private static final int IF_ICMPNE = 0xa0;
+    private static final int IF_ICMPLT = 0xa1;
+    private static final int IF_ICMPGE = 0xa2;
+    private static final int IF_ICMPGT = 0xa3;
+    private static final int IF_ICMPLE = 0xa4;
+    private static final int GOTO = 0xa7;
+    private static final int IRETURN = 0xac;
+    private static final int RETURN = 0xb1;
+    private static final int INVOKEVIRTUAL = 0xb6;
+    private static final int INVOKESPECIAL = 0xb7;
+    private static final int INVOKESTATIC = 0xb8;
+    private static final int NEWARRAY = 0xbc;
+    private static final int ARRAYLENGTH = 0xbe;
+    private static final int ATHROW = 0xbf;
+    private static final int WIDE = 0xc4;
+    private static final int T_INT = 10;
+
+    private static final String TIERED = "runtime/JILTiered";
+    private static final String INTERPRETER = "runtime/JILInterpreter";
+    private static final String MEMORY = "runtime/JILMemory";
+    private static final String EXCEPTION = "Lruntime/errors/JILException;";
+
+    // the locals of the generated run method; the slots of the program follow as value and defined pairs,
+    // and after them a long per kind of superinstruction counting how often it ran
+    private static final int THIS = 0;
+    private static final int INTERP = 1;
+    private static final int ARGS = 2;
+    private static final int PC = 3;
+    private static final int MEM = 4;
+    private static final int RESULT = 5;
+    private static final int CAUGHT = 6;
+    private static final int SLOTS = 7;
+
+    private final JILProgram program;
+    private final int counters;
+
+    private final Bytes pool;
+    private final HashMap<String, Integer> constants;
+    private int poolCount;
+
+    private final Bytes body;
+    // where the bytecode of each instruction starts, indexed by pc
+    private final int[] starts;
+    // pairs of the address of a jump and the pc it jumps to
+    private final ArrayList<int[]> jumps;
+
+    private static final class Bytes {
+        byte[] data = new byte[256];
+        int size = 0;
+
+        void u1(int v) {
+            if (size == data.length)
+                data = Arrays.copyOf(data, data.length * 2);
+            data[size++] = (byte) v;
+        }
+
+        void u2(int v) {
+            u1(v >> 8);
+            u1(v);
+        }
+
+        void u4(int v) {
+            u2(v >>> 16);
+            u2(v);
+        }
+
+        void put(Bytes other) {
+            for (int i = 0; i < other.size; i++)
+                u1(other.data[i]);
+        }
+
+        void patch(int at, int v) {
+            data[at] = (byte) (v >> 8);
+            data[at + 1] = (byte) v;
+        }
+    }
+
+    private JILTierCompiler(JILProgram program) {
+        this.program = program;
+        counters = SLOTS + program.slotNames.length * 2;
+        pool = new Bytes();
+        constants = new HashMap<>();
+        poolCount = 1;
+        body = new Bytes();
+        starts = new int[program.code.length + 1];
+        jumps = new ArrayList<>();
+    }
+
+    /**
+     * Whether every instruction and expression of {@code program} can be compiled
+     */
+    static boolean supported(JILProgram program) {
+        int[] code = program.code;
+        for (int pc = 0; pc < code.length; pc += JILProgram.width(code, pc)) {
+            switch (code[pc]) {
+                case JILProgram.CATCH, JILProgram.ENDCATCH, JILProgram.ENDCATCHES -> {
+                    return false;
+                }
+            }
+        }
+
+        for (JILExpr expr : program.exprs) {
+            int[] ops = expr.code();
+            for (int i = 0; i < ops.length; i += 2) {
+                if (ops[i] == JILExpr.LOAD || ops[i] == JILExpr.LOAD_RAW)
+                    return false;
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * Compiles {@code program}, or returns {@code null} if it cannot be, in which case it should stay on the interpreter
+     *
+     * @param file the name errors from the compiled code are located in
+     */
+    static JILTiered compile(JILProgram program, String file) {
+        if (!supported(program))
+            return null;
+
+        try {
+            byte[] bytes = new JILTierCompiler(program).classFile();
+            if (bytes == null)
+                return null;
+
+            Class<?> hidden = MethodHandles.lookup().defineHiddenClass(bytes, true).lookupClass();
+            JILTiered tiered = (JILTiered) hidden.getDeclaredConstructor().newInstance();
+            tiered.program = program;
+            tiered.file = file;
+            return tiered;
+        } catch (ReflectiveOperationException | RuntimeException | LinkageError e) {
+            return null;
+        }
+    }
+
+    private int constant(String key, int tag, Runnable write) {
+        Integer index = constants.get(key);
+        if (index != null)
+            return index;
+
+        pool.u1(tag);
+        write.run();
+        constants.put(key, poolCount);
+        return poolCount++;
+    }
+
+    private int utf8(String str) {
+        return constant("U" + str, 1, () -> {
+            Bytes bytes = new Bytes();
+            for (int i = 0; i < str.length(); i++) {
+                char c = str.charAt(i);
+                if (c != 0 && c < 0x80) {
+                    bytes.u1(c);
+                } else if (c < 0x800) {
+                    bytes.u1(0xC0 | (c >> 6));
+                    bytes.u1(0x80 | (c & 0x3F));
+                } else {
+                    bytes.u1(0xE0 | (c >> 12));
+                    bytes.u1(0x80 | ((c >> 6) & 0x3F));
+                    bytes.u1(0x80 | (c & 0x3F));
+                }
+            }
+
+            if (bytes.size > 0xFFFF)
+                throw new IllegalStateException("constant is too long");
+
+            pool.u2(bytes.size);
+            pool.put(bytes);
+        });
+    }
+
+    private int classRef(String name) {
+        int nameIndex = utf8(name);
+        return constant("C" + name, 7, () -> pool.u2(nameIndex));
+    }
+
+    private int stringRef(String str) {
+        int strIndex = utf8(str);
+        return constant("S" + str, 8, () -> pool.u2(strIndex));
+    }
+
+    private int intRef(int value) {
+        return constant("I" + value, 3, () -> pool.u4(value));
+    }
+
+    private int methodRef(String owner, String name, String desc) {
+        int ownerIndex = classRef(owner);
+        int nameIndex = utf8(name);
+        int descIndex = utf8(desc);
+        int natIndex = constant("N" + name + ' ' + desc, 12, () -> {
+            pool.u2(nameIndex);
+            pool.u2(descIndex);
+        });
+        return constant("M" + owner + '.' + name + desc, 10, () -> {
+            pool.u2(ownerIndex);
+            pool.u2(natIndex);
+        });
+    }
+
+    private void op(int opcode) {
+        body.u1(opcode);
+    }
+
+    private void iconst(int value) {
+        if (value >= -1 && value <= 5) {
+            op(ICONST_0 + value);
+        } else if (value >= Byte.MIN_VALUE && value <= Byte.MAX_VALUE) {
+            op(BIPUSH);
+            body.u1(value);
+        } else if (value >= Short.MIN_VALUE && value <= Short.MAX_VALUE) {
+            op(SIPUSH);
+            body.u2(value);
+        } else {
+            ldc(intRef(value));
+        }
+    }
+
+    private void ldc(int index) {
+        if (index < 256) {
+            op(LDC);
+            body.u1(index);
+        } else {
+            op(LDC_W);
+            body.u2(index);
+        }
+    }
+
+    private void local(int opcode, int index) {
+        if (index < 256) {
+            op(opcode);
+            body.u1(index);
+        } else {
+            op(WIDE);
+            op(opcode);
+            body.u2(index);
+        }
+    }
+
+    private void invoke(int opcode, String owner, String name, String desc) {
+        op(opcode);
+        body.u2(methodRef(owner, name, desc));
+    }
+
+    /**
+     * Emits a branch whose target is set later with {@link #land}, and returns its address
+     */
+    private int branch(int opcode) {
+        int at = body.size;
+        op(opcode);
+        body.u2(0);
+        return at;
+    }
+
+    private void land(int at) {
+        body.patch(at + 1, body.size - at);
+    }
+
+    private void jump(int opcode, int target) {
+        jumps.add(new int[]{branch(opcode), target});
+    }
+
+    private static int value(int slot) {
+        return SLOTS + slot * 2;
+    }
+
+    private static int defined(int slot) {
+        return SLOTS + slot * 2 + 1;
+    }
+
+    private void checkDefined(int slot) {
+        local(ILOAD, defined(slot));
+        int ok = branch(IFNE);
+        local(ALOAD, THIS);
+        iconst(slot);
+        invoke(INVOKEVIRTUAL, TIERED, "missing", "(I)" + EXCEPTION);
+        op(ATHROW);
+        land(ok);
+    }
+
+    private void checkUndefined(int slot) {
+        local(ILOAD, defined(slot));
+        int ok = branch(IFEQ);
+        local(ALOAD, THIS);
+        iconst(slot);
+        invoke(INVOKEVIRTUAL, TIERED, "redefined", "(I)" + EXCEPTION);
+        op(ATHROW);
+        land(ok);
+    }
+
+    private void store(int slot) {
+        local(ISTORE, value(slot));
+        iconst(1);
+        local(ISTORE, defined(slot));
+    }
+
+    private void fired(int kind) {
+        local(LLOAD, counters + kind * 2);
+        op(LCONST_1);
+        op(LADD);
+        local(LSTORE, counters + kind * 2);
+    }
+
+    /**
+     * Adds the counts of superinstructions run by this call to the program's; done wherever the method returns or throws
+     */
+    private void addFired() {
+        local(ALOAD, THIS);
+        for (int kind = 0; kind < program.fired.length; kind++)
+            local(LLOAD, counters + kind * 2);
+        invoke(INVOKEVIRTUAL, TIERED, "fired", "(JJJ)V");
+    }
+
+    private void operand(int ref) {
+        int slot = ref >= 0 ? ref : ~ref;
+        checkDefined(slot);
+        if (ref < 0)
+            local(ALOAD, MEM);
+        local(ILOAD, value(slot));
+        if (ref < 0)
+            invoke(INVOKEVIRTUAL, MEMORY, "deref", "(I)I");
+    }
+
+    private void box() {
+        invoke(INVOKEVIRTUAL, INTERPRETER, "box", "(I)I");
+    }
+
+    private void expr(JILExpr expr) {
+        int[] ops = expr.code();
+        for (int i = 0; i < ops.length; i += 2) {
+            int operand = ops[i + 1];
+            switch (ops[i]) {
+                case JILExpr.PUSH -> iconst(operand);
+                case JILExpr.LOAD_SLOT -> {
+                    checkDefined(operand);
+                    local(ILOAD, value(operand));
+                }
+                case JILExpr.LOAD_BOXED -> {
+                    checkDefined(operand);
+                    local(ALOAD, MEM);
+                    local(ILOAD, value(operand));
+                    invoke(INVOKEVIRTUAL, MEMORY, "deref", "(I)I");
+                }
+                case JILExpr.ADD -> op(IADD);
+                case JILExpr.SUB -> op(ISUB);
+                case JILExpr.MUL -> op(IMUL);
+                case JILExpr.DIV -> op(IDIV);
+                case JILExpr.MOD -> op(IREM);
+                case JILExpr.POW -> invoke(INVOKESTATIC, TIERED, "pow", "(II)I");
+                case JILExpr.AND -> invoke(INVOKESTATIC, TIERED, "and", "(II)I");
+                case JILExpr.OR -> invoke(INVOKESTATIC, TIERED, "or", "(II)I");
+                case JILExpr.EQ -> invoke(INVOKESTATIC, TIERED, "eq", "(II)I");
+                case JILExpr.NE -> invoke(INVOKESTATIC, TIERED, "ne", "(II)I");
+                case JILExpr.GT -> invoke(INVOKESTATIC, TIERED, "gt", "(II)I");
+                case JILExpr.GE -> invoke(INVOKESTATIC, TIERED, "ge", "(II)I");
+                case JILExpr.LT -> invoke(INVOKESTATIC, TIERED, "lt", "(II)I");
+                case JILExpr.LE -> invoke(INVOKESTATIC, TIERED, "le", "(II)I");
+                case JILExpr.NOT -> invoke(INVOKESTATIC, TIERED, "not", "(I)I");
+                default -> throw new IllegalStateException("cannot compile expression opcode " + ops[i]);
+            }
+        }
+    }
+
+    private void instruction(int[] code, int pc) {
+        switch (code[pc]) {
+            case JILProgram.GOTO -> jump(GOTO, code[pc + 1]);
+            case JILProgram.DEF_LOCAL, JILProgram.DEFP -> {
+                if (code[pc] == JILProgram.DEFP)
+                    local(ALOAD, INTERP);
+                expr(program.exprs[code[pc + 2]]);
+                if (code[pc] == JILProgram.DEFP)
+                    invoke(INVOKEVIRTUAL, INTERPRETER, "escaped", "(I)I");
+                checkUndefined(code[pc + 1]);
+                store(code[pc + 1]);
+            }
+            case JILProgram.SET_LOCAL, JILProgram.SETP -> {
+                if (code[pc] == JILProgram.SETP)
+                    local(ALOAD, INTERP);
+                expr(program.exprs[code[pc + 2]]);
+                if (code[pc] == JILProgram.SETP)
+                    invoke(INVOKEVIRTUAL, INTERPRETER, "escaped", "(I)I");
+                checkDefined(code[pc + 1]);
+                local(ISTORE, value(code[pc + 1]));
+            }
+            case JILProgram.DEF -> {
+                local(ALOAD, INTERP);
+                expr(program.exprs[code[pc + 2]]);
+                box();
+                checkUndefined(code[pc + 1]);
+                store(code[pc + 1]);
+            }
+            case JILProgram.SET -> {
+                checkDefined(code[pc + 1]);
+                local(ALOAD, MEM);
+                local(ILOAD, value(code[pc + 1]));
+                expr(program.exprs[code[pc + 2]]);
+                invoke(INVOKEVIRTUAL, MEMORY, "deref", "(II)V");
+            }
+            case JILProgram.DEFS, JILProgram.SETS -> {
+                local(ALOAD, INTERP);
+                ldc(stringRef(program.strings[code[pc + 2]]));
+                invoke(INVOKEVIRTUAL, INTERPRETER, "newString", "(Ljava/lang/String;)I");
+                if (code[pc] == JILProgram.DEFS) {
+                    checkUndefined(code[pc + 1]);
+                    store(code[pc + 1]);
+                } else {
+                    checkDefined(code[pc + 1]);
+                    local(ISTORE, value(code[pc + 1]));
+                }
+            }
+            case JILProgram.INC -> {
+                checkDefined(code[pc + 1]);
+                local(ILOAD, value(code[pc + 1]));
+                iconst(code[pc + 2]);
+                op(IADD);
+                local(ISTORE, value(code[pc + 1]));
+                fired(JILProgram.FUSED_INC);
+            }
+            case JILProgram.INC_BOXED -> {
+                checkDefined(code[pc + 1]);
+                local(ALOAD, MEM);
+                local(ILOAD, value(code[pc + 1]));
+                local(ALOAD, MEM);
+                local(ILOAD, value(code[pc + 1]));
+                invoke(INVOKEVIRTUAL, MEMORY, "deref", "(I)I");
+                iconst(code[pc + 2]);
+                op(IADD);
+                invoke(INVOKEVIRTUAL, MEMORY, "deref", "(II)V");
+                fired(JILProgram.FUSED_INC);
+            }
+            case JILProgram.JMP_CMP, JILProgram.JMP_CMPK -> {
+                operand(code[pc + 2]);
+                if (code[pc] == JILProgram.JMP_CMPK)
+                    iconst(code[pc + 3]);
+                else
+                    operand(code[pc + 3]);
+                fired(JILProgram.FUSED_BRANCH);
+
+                jump(switch (code[pc + 1]) {
+                    case JILExpr.EQ -> IF_ICMPEQ;
+                    case JILExpr.NE -> IF_ICMPNE;
+                    case JILExpr.GT -> IF_ICMPGT;
+                    case JILExpr.GE -> IF_ICMPGE;
+                    case JILExpr.LT -> IF_ICMPLT;
+                    default -> IF_ICMPLE;
+                }, code[pc + 4]);
+            }
+            case JILProgram.CALL -> call(code, pc);
+            case JILProgram.CALL_IF, JILProgram.CALL_IFN -> {
+                int cond = pc + JILProgram.width(code, pc) - 1;
+                iconst(cond);
+                local(ISTORE, PC);
+                expr(program.exprs[code[cond]]);
+                fired(JILProgram.FUSED_CALL);
+                int skip = branch(code[pc] == JILProgram.CALL_IF ? IFEQ : IFNE);
+                iconst(pc);
+                local(ISTORE, PC);
+                call(code, pc);
+                land(skip);
+            }
+            case JILProgram.RET -> {
+                expr(program.exprs[code[pc + 1]]);
+                addFired();
+                op(IRETURN);
+            }
+            case JILProgram.JMPZ, JILProgram.JMPNZ -> {
+                expr(program.exprs[code[pc + 1]]);
+                jump(code[pc] == JILProgram.JMPZ ? IFEQ : IFNE, code[pc + 2]);
+            }
+            case JILProgram.THROW -> {
+                ldc(stringRef(program.strings[code[pc + 1]]));
+                invoke(INVOKESTATIC, TIERED, "error", "(Ljava/lang/String;)" + EXCEPTION);
+                op(ATHROW);
+            }
+            default -> throw new IllegalStateException("cannot compile opcode " + code[pc]);
+        }
+    }
+
+    private void call(int[] code, int pc) {
+        int out = code[pc + 2];
+        int argc = code[pc + 4];
+        for (int i = 0; i < argc; i++)
+            checkDefined(code[pc + 5 + i]);
+
+        local(ALOAD, INTERP);
+        ldc(stringRef(program.names[code[pc + 1]]));
+        iconst(argc);
+        op(NEWARRAY);
+        body.u1(T_INT);
+        for (int i = 0; i < argc; i++) {
+            op(DUP);
+            iconst(i);
+            local(ILOAD, value(code[pc + 5 + i]));
+            op(IASTORE);
+        }
+        invoke(INVOKEVIRTUAL, INTERPRETER, "tierCall", "(Ljava/lang/String;[I)I");
+
+        switch (code[pc + 3]) {
+            case JILProgram.OUT_INTOP, JILProgram.OUT_INTO_LOCAL -> store(out);
+            case JILProgram.OUT_INTO -> {
+                local(ISTORE, RESULT);
+                local(ILOAD, defined(out));
+                int boxIt = branch(IFEQ);
+                local(ALOAD, MEM);
+                local(ILOAD, value(out));
+                local(ILOAD, RESULT);
+                invoke(INVOKEVIRTUAL, MEMORY, "deref", "(II)V");
+                int done = branch(GOTO);
+                land(boxIt);
+                local(ALOAD, INTERP);
+                local(ILOAD, RESULT);
+                box();
+                store(out);
+                land(done);
+            }
+            default -> op(POP);
+        }
+    }
+
+    /**
+     * The bytes of the class, or {@code null} if the method would be too large for the JVM
+     */
+    private byte[] classFile() {
+        int[] code = program.code;
+        int slots = program.slotNames.length;
+
+        local(ALOAD, INTERP);
+        invoke(INVOKEVIRTUAL, INTERPRETER, "memory", "()L" + MEMORY + ";");
+        local(ASTORE, MEM);
+        iconst(0);
+        local(ISTORE, PC);
+        iconst(0);
+        local(ISTORE, RESULT);
+        for (int slot = 0; slot < slots; slot++) {
+            iconst(0);
+            local(ISTORE, value(slot));
+            iconst(0);
+            local(ISTORE, defined(slot));
+        }
+        for (int kind = 0; kind < program.fired.length; kind++) {
+            op(LCONST_0);
+            local(LSTORE, counters + kind * 2);
+        }
+
+        for (int i = 0; i < program.paramSlots.length; i++) {
+            int slot = program.paramSlots[i];
+            if (slot < 0)
+                continue;
+
+            local(ALOAD, ARGS);
+            op(ARRAYLENGTH);
+            iconst(i);
+            int skip = branch(IF_ICMPLE);
+            if (program.slotBoxed[slot])
+                local(ALOAD, INTERP);
+            local(ALOAD, ARGS);
+            iconst(i);
+            op(IALOAD);
+            if (program.slotBoxed[slot])
+                box();
+            store(slot);
+            land(skip);
+        }
+
+        int bodyStart = body.size;
+        for (int pc = 0; pc < code.length; pc += JILProgram.width(code, pc)) {
+            starts[pc] = body.size;
+            iconst(pc);
+            local(ISTORE, PC);
+            instruction(code, pc);
+        }
+
+        starts[code.length] = body.size;
+        addFired();
+        iconst(0);
+        op(IRETURN);
+
+        int bodyEnd = body.size;
+        local(ASTORE, CAUGHT);
+        addFired();
+        local(ALOAD, THIS);
+        local(ILOAD, PC);
+        local(ALOAD, CAUGHT);
+        invoke(INVOKEVIRTUAL, TIERED, "located", "(I" + EXCEPTION + ")" + EXCEPTION);
+        op(ATHROW);
+
+        if (body.size > Short.MAX_VALUE)
+            return null;
+
+        for (int[] j : jumps)
+            body.patch(j[0] + 1, starts[j[1]] - j[0]);
+
+        int maxDepth = 0;
+        for (JILExpr expr : program.exprs)
+            maxDepth = Math.max(maxDepth, expr.depth());
+
+        int thisClass = classRef("runtime/JILTieredFunction");
+        int superClass = classRef(TIERED);
+        int superInit = methodRef(TIERED, "<init>", "()V");
+        int codeName = utf8("Code");
+        int initName = utf8("<init>");
+        int initDesc = utf8("()V");
+        int runName = utf8("run");
+        int runDesc = utf8("(L" + INTERPRETER + ";[I)I");
+        int caughtClass = classRef(EXCEPTION.substring(1, EXCEPTION.length() - 1));
+
+        Bytes cls = new Bytes();
+        cls.u4(0xCAFEBABE);
+        cls.u2(0);
+        cls.u2(49);
+        cls.u2(poolCount);
+        cls.put(pool);
+        // ACC_FINAL | ACC_SUPER
+        cls.u2(0x0030);
+        cls.u2(thisClass);
+        cls.u2(superClass);
+        cls.u2(0);
+        cls.u2(0);
+        cls.u2(2);
+
+        // public <init>() { super(); }
+        cls.u2(0x0001);
+        cls.u2(initName);
+        cls.u2(initDesc);
+        cls.u2(1);
+        cls.u2(codeName);
+        cls.u4(17);
+        cls.u2(1);
+        cls.u2(1);
+        cls.u4(5);
+        cls.u1(ALOAD_0);
+        cls.u1(INVOKESPECIAL);
+        cls.u2(superInit);
+        cls.u1(RETURN);
+        cls.u2(0);
+        cls.u2(0);
+
+        cls.u2(0);
+        cls.u2(runName);
+        cls.u2(runDesc);
+        cls.u2(1);
+        cls.u2(codeName);
+        cls.u4(12 + body.size + 8);
+        cls.u2(maxDepth + 8);
+        cls.u2(counters + program.fired.length * 2);
+        cls.u4(body.size);
+        cls.put(body);
+        cls.u2(1);
+        cls.u2(bodyStart);
+        cls.u2(bodyEnd);
+        cls.u2(bodyEnd);
+        cls.u2(caughtClass);
+        cls.u2(0);
+
+        cls.u2(0);
+
+        return Arrays.copyOf(cls.data, cls.size);
+    }
+}
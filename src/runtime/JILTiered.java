@@ -0,0 +1,84 @@
+package runtime;
+
+import runtime.errors.JILException;
+
+/**
+ * The base of the classes {@code runtime.JILTierCompiler} generates for hot functions
+ * <p>
+ * A generated class overrides {@code run} with the function's body as JVM bytecode and calls back into the helpers here
+ * for everything that is not a single JVM instruction, so the errors it throws read the same as the interpreter's
+ */
+abstract class JILTiered {
+    JILProgram program;
+    String file;
+
+    JILTiered() {
+    }
+
+    /**
+     * Runs the function with {@code args} as its '$n' arguments; the caller has already checked how many there are
+     */
+    abstract int run(JILInterpreter interpreter, int[] args) throws JILException;
+
+    JILException missing(int slot) {
+        return new JILException("variable '" + program.slotNames[slot] + "' does not exist");
+    }
+
+    JILException redefined(int slot) {
+        return new JILException(String.format("cannot redefine existing variable '%s'", program.slotNames[slot]));
+    }
+
+    JILException located(int pc, JILException e) {
+        return JILInterpreter.located(program.site(pc), file, e);
+    }
+
+    void fired(long increments, long branches, long calls) {
+        program.fired[JILProgram.FUSED_INC] += increments;
+        program.fired[JILProgram.FUSED_BRANCH] += branches;
+        program.fired[JILProgram.FUSED_CALL] += calls;
+    }
+
+    static JILException error(String message) {
+        return new JILException(message);
+    }
+
+    static int pow(int a, int b) {
+        return (int) Math.pow(a, b);
+    }
+
+    static int and(int a, int b) {
+        return a != 0 && b != 0 ? 1 : 0;
+    }
+
+    static int or(int a, int b) {
+        return a != 0 || b != 0 ? 1 : 0;
+    }
+
+    static int eq(int a, int b) {
+        return a == b ? 1 : 0;
+    }
+
+    static int ne(int a, int b) {
+        return a != b ? 1 : 0;
+    }
+
+    static int gt(int a, int b) {
+        return a > b ? 1 : 0;
+    }
+
+    static int ge(int a, int b) {
+        return a >= b ? 1 : 0;
+    }
+
+    static int lt(int a, int b) {
+        return a < b ? 1 : 0;
+    }
+
+    static int le(int a, int b) {
+        return a <= b ? 1 : 0;
+    }
+
+    static int not(int a) {
+        return a == 0 ? 1 : 0;
+    }
+}
@@ -0,0 +1,210 @@
+package runtime;
+
+import lexer.Token;
+import lexer.TokenStore;
+import lexer.TokenType;
+import runtime.errors.JILException;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Checks every function of a loaded file once, before any of them runs, and reports all of the problems it finds together
+ * <p>
+ * A line is checked for the shape of its statement, that the labels used by {@code goto} and {@code catch} exist,
+ * that {@code endcatch} and {@code endcatches} close a {@code catch} written before them, that its expression
+ * does not run out of operands, and that a call to a known function passes as many arguments as the function takes.
+ * Catch scopes are checked in the order they are written, not the order jumps may run them in
+ * <p>
+ * Functions that pass are marked as verified, so the token path stops re-checking their lines and reuses the expressions compiled here,
+ * and compiled calls stop checking how many arguments they pass
+ */
+public final class JILVerifier {
+    private record Problem(Token site, String file, String message) {
+    }
+
+    private final Map<String, JILFunction> funcs;
+    private final ArrayList<Problem> problems;
+
+    private JILVerifier(Map<String, JILFunction> funcs) {
+        this.funcs = funcs;
+        problems = new ArrayList<>();
+    }
+
+    /**
+     * Verifies every function in {@code funcs} that is written in JIL
+     *
+     * @throws JILException with one line per problem, in the order they appear in the file
+     */
+    public static void verify(Map<String, JILFunction> funcs) throws JILException {
+        JILVerifier verifier = new JILVerifier(funcs);
+
+        HashMap<JILFunction, JILExpr[]> verified = new HashMap<>();
+        for (Map.Entry<String, JILFunction> entry : funcs.entrySet()) {
+            JILFunction f = entry.getValue();
+            if (f.isNative())
+                continue;
+
+            JILExpr[] exprs = verifier.function(entry.getKey(), f.tokens);
+            if (exprs != null)
+                verified.put(f, exprs);
+        }
+
+        if (!verifier.problems.isEmpty()) {
+            verifier.problems.sort(Comparator.comparingInt((Problem p) -> p.site.ln()).thenComparingInt(p -> p.site.col()));
+
+            StringBuilder str = new StringBuilder();
+            for (Problem p : verifier.problems) {
+                if (!str.isEmpty())
+                    str.append('\n');
+                str.append(JILInterpreter.located(p.site, p.file, new JILException(p.message)).getMessage());
+            }
+
+            throw new JILException(str.toString());
+        }
+
+        for (Map.Entry<JILFunction, JILExpr[]> entry : verified.entrySet()) {
+            JILFunction f = entry.getKey();
+            f.prepared = f.prepared.verified(entry.getValue());
+            if (f.program != null)
+                f.program.verified = true;
+        }
+    }
+
+    /**
+     * Checks the lines of one function, returning the expression of each line if they all pass and {@code null} otherwise
+     */
+    private JILExpr[] function(String name, TokenStore lines) {
+        int before = problems.size();
+        JILExpr[] exprs = new JILExpr[lines.lines()];
+
+        HashMap<String, Integer> labels = new HashMap<>();
+        for (int i = 0; i < lines.lines(); i++) {
+            TokenStore.Range tl = lines.range(i, 0);
+            if (!tl.is(0, "lbl"))
+                continue;
+
+            String res = new JILInterpreter.TokenChecker(tl).checkSingle();
+            if (res != null)
+                problems.add(new Problem(tl.get(0), name, res));
+            else if (labels.containsKey(tl.content(1)))
+                problems.add(new Problem(tl.get(0), name, "cannot redefine label '" + tl.content(1) + "'"));
+            else
+                labels.put(tl.content(1), i + 1);
+        }
+
+        ArrayList<String> catches = new ArrayList<>();
+        for (int i = 0; i < lines.lines(); i++) {
+            try {
+                exprs[i] = line(lines.range(i, 0), labels, catches);
+            } catch (JILException e) {
+                problems.add(new Problem(lines.get(i, 0), name, e.getMessage()));
+            }
+        }
+
+        return problems.size() == before ? exprs : null;
+    }
+
+    /**
+     * Checks one line, returning its compiled expression if it has one
+     */
+    private JILExpr line(TokenStore.Range tl, Map<String, Integer> labels, ArrayList<String> catches) throws JILException {
+        JILInterpreter.TokenChecker tc = new JILInterpreter.TokenChecker(tl);
+        String op = tl.content(0);
+
+        if (tl.is(0, TokenType.String))
+            throw new JILException("unexpected string");
+
+        switch (op) {
+            case "rem", "lbl" -> {}
+            case "goto" -> label(tc, tl, labels);
+            case "catch" -> {
+                label(tc, tl, labels);
+                if (catches.contains(tl.content(1)))
+                    throw new JILException("already in a catch scope with the label '" + tl.content(1) + "'");
+
+                catches.add(tl.content(1));
+            }
+            case "endcatch", "endcatches" -> {
+                if (catches.isEmpty())
+                    throw new JILException(String.format("'%s' has no matching 'catch'", op));
+
+                if (op.equals("endcatch"))
+                    catches.remove(catches.size() - 1);
+                else
+                    catches.clear();
+            }
+            case "import" -> throw new JILException("cannot import a module inside of a function");
+            case "fun" -> throw new JILException("cannot define a function inside of a function");
+            case "struct" -> throw new JILException("cannot define a struct inside of a function");
+            case "def", "defp", "set", "setp" -> {
+                String res = tc.check(1, JILInterpreter.TokenChecker.TMatcher.any());
+                if (res != null)
+                    throw new JILException(res);
+                else if (tl.length() == 2)
+                    throw new JILException("expected expression, but found EOL instead");
+                else if (tl.is(2, TokenType.String) && tl.length() == 3)
+                    return null;
+
+                return expr(tl, 2, op.endsWith("p"));
+            }
+            case "call" -> call(tc, tl);
+            case "ret", "retp" -> {
+                if (tl.length() == 1)
+                    throw new JILException("expected expression, but found EOL instead");
+
+                return expr(tl, 1, op.endsWith("p"));
+            }
+            case "if", "ifn", "ifp", "ifnp" -> {
+                if (tl.length() == 1)
+                    throw new JILException("expected expression, but found EOL instead");
+
+                return expr(tl, 1, op.contains("p"));
+            }
+            default -> throw new JILException(String.format("unexpected token '%s'", op));
+        }
+
+        return null;
+    }
+
+    private static void label(JILInterpreter.TokenChecker tc, TokenStore.Range tl, Map<String, Integer> labels) throws JILException {
+        String res = tc.checkSingle();
+        if (res != null)
+            throw new JILException(res);
+        else if (!labels.containsKey(tl.content(1)))
+            throw new JILException("unknown label '" + tl.content(1) + "'");
+    }
+
+    private void call(JILInterpreter.TokenChecker tc, TokenStore.Range tl) throws JILException {
+        String res = tc.checkAll(1, 4, JILInterpreter.TokenChecker.TMatcher.opt("into", "intop"), JILInterpreter.TokenChecker.TMatcher.any(), JILInterpreter.TokenChecker.TMatcher.any());
+
+        String fname;
+        int argOffset;
+        if (res == null) {
+            if (tl.length() < 4)
+                throw new JILException(tc.check(tl.length(), JILInterpreter.TokenChecker.TMatcher.any()));
+
+            fname = tl.content(3);
+            argOffset = 4;
+        } else {
+            res = tc.check(1, JILInterpreter.TokenChecker.TMatcher.any());
+            if (res != null)
+                throw new JILException(res);
+
+            fname = tl.content(1);
+            argOffset = 2;
+        }
+
+        JILFunction f = funcs.get(fname);
+        if (f == null)
+            throw new JILException("function '" + fname + "' does not exist");
+
+        f.checkArgs(tl.length() - argOffset);
+    }
+
+    private static JILExpr expr(TokenStore.Range tl, int from, boolean raw) throws JILException {
+        return JILExpr.compile(tl.from(from), raw, null);
+    }
+}
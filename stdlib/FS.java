@@ -0,0 +1,324 @@
+import runtime.JILMemory;
+import runtime.JILFunction;
+import runtime.JILNative;
+import runtime.errors.JILException;
+import runtime.errors.JILNativeException;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.OpenOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+/*
+ * Files are read and written one byte per cell, with bytes read as 0 to 255
+ * Offsets and sizes are pointers; a pointer to two cells holds a 64 bit value as its high and low halves, so files past 2 GiB can be used
+ * Open files and mapped regions are handles that belong to the memory they were opened with
+ */
+public class FS {
+    // the mode numbers taken by openFile
+    private static final int READ = 0;
+    private static final int WRITE = 1;
+    private static final int APPEND = 2;
+    private static final int READ_WRITE = 3;
+
+    private static final int CHUNK = 1 << 16;
+
+    private static final Map<JILMemory, ArrayList<Object>> handles = new WeakHashMap<>();
+
+    private static synchronized ArrayList<Object> handlesOf(JILMemory memory) {
+        return handles.computeIfAbsent(memory, m -> new ArrayList<>());
+    }
+
+    private static int addHandle(JILMemory memory, Object resource) {
+        ArrayList<Object> table = handlesOf(memory);
+        synchronized (table) {
+            for (int i = 0; i < table.size(); i++) {
+                if (table.get(i) == null) {
+                    table.set(i, resource);
+                    return i + 1;
+                }
+            }
+
+            table.add(resource);
+            return table.size();
+        }
+    }
+
+    private static Object getHandle(JILMemory memory, int handle) {
+        ArrayList<Object> table = handlesOf(memory);
+        synchronized (table) {
+            return handle < 1 || handle > table.size() ? null : table.get(handle - 1);
+        }
+    }
+
+    private static void removeHandle(JILMemory memory, int handle) {
+        ArrayList<Object> table = handlesOf(memory);
+        synchronized (table) {
+            table.set(handle - 1, null);
+        }
+    }
+
+    private static FileChannel file(JILMemory memory, int handlePtr) throws JILException, JILNativeException {
+        int handle = memory.deref(handlePtr);
+        if (getHandle(memory, handle) instanceof FileChannel channel)
+            return channel;
+
+        throw new JILNativeException(String.format("%d is not an open file", handle));
+    }
+
+    private static MappedByteBuffer region(JILMemory memory, int handlePtr) throws JILException, JILNativeException {
+        int handle = memory.deref(handlePtr);
+        if (getHandle(memory, handle) instanceof MappedByteBuffer buffer)
+            return buffer;
+
+        throw new JILNativeException(String.format("%d is not a mapped region", handle));
+    }
+
+    private static long longArg(JILMemory memory, int ptr) throws JILException {
+        if (memory.sizeOf(ptr) < 2)
+            return memory.deref(ptr);
+
+        JILMemory.View view = memory.view(ptr);
+        return ((long) view.get(0) << 32) | (view.get(1) & 0xFFFFFFFFL);
+    }
+
+    private static void putLong(JILMemory memory, int ptr, long value) throws JILException, JILNativeException {
+        if (memory.sizeOf(ptr) >= 2) {
+            JILMemory.View view = memory.view(ptr);
+            view.set(0, (int) (value >>> 32));
+            view.set(1, (int) value);
+        } else if (value > Integer.MAX_VALUE) {
+            throw new JILNativeException(String.format("%d does not fit in one cell; pass a pointer to two cells", value));
+        } else {
+            memory.deref(ptr, (int) value);
+        }
+    }
+
+    private static int toCells(ByteBuffer bytes, int[] cells) {
+        int n = bytes.remaining();
+        for (int i = 0; i < n; i++)
+            cells[i] = bytes.get() & 0xFF;
+        return n;
+    }
+
+    @JILNative("")
+    public static int openFile(JILMemory memory, HashMap<String, JILFunction> funcs, int pathPtr, int modePtr) throws JILException, JILNativeException {
+        int mode = memory.deref(modePtr);
+        OpenOption[] options = switch (mode) {
+            case READ -> new OpenOption[]{StandardOpenOption.READ};
+            case WRITE -> new OpenOption[]{StandardOpenOption.WRITE, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING};
+            case APPEND -> new OpenOption[]{StandardOpenOption.WRITE, StandardOpenOption.CREATE, StandardOpenOption.APPEND};
+            case READ_WRITE -> new OpenOption[]{StandardOpenOption.READ, StandardOpenOption.WRITE, StandardOpenOption.CREATE};
+            default -> throw new JILNativeException(String.format("unknown file mode %d", mode));
+        };
+
+        try {
+            return addHandle(memory, FileChannel.open(memory.resolve(memory.derefString(pathPtr)).toPath(), options));
+        } catch (IOException | RuntimeException e) {
+            throw new JILNativeException(e.toString());
+        }
+    }
+
+    @JILNative("")
+    public static int closeFile(JILMemory memory, HashMap<String, JILFunction> funcs, int handlePtr) throws JILException, JILNativeException {
+        FileChannel channel = file(memory, handlePtr);
+        removeHandle(memory, memory.deref(handlePtr));
+
+        try {
+            channel.close();
+        } catch (IOException e) {
+            throw new JILNativeException(e.toString());
+        }
+
+        return 0;
+    }
+
+    @JILNative("")
+    public static int fileSize(JILMemory memory, HashMap<String, JILFunction> funcs, int handlePtr, int outPtr) throws JILException, JILNativeException {
+        try {
+            putLong(memory, outPtr, file(memory, handlePtr).size());
+        } catch (IOException e) {
+            throw new JILNativeException(e.toString());
+        }
+
+        return 0;
+    }
+
+    /*
+     * Reads up to as many bytes as the buffer has cells, starting at the offset; returns how many were read, or -1 at the end of the file
+     */
+    @JILNative("")
+    public static int readAt(JILMemory memory, HashMap<String, JILFunction> funcs, int handlePtr, int bufPtr, int offsetPtr) throws JILException, JILNativeException {
+        FileChannel channel = file(memory, handlePtr);
+        JILMemory.View view = memory.view(bufPtr);
+        long position = longArg(memory, offsetPtr);
+        int size = view.size();
+
+        ByteBuffer bytes = ByteBuffer.allocate(Math.min(size, CHUNK));
+        int[] cells = new int[bytes.capacity()];
+        int total = 0;
+        try {
+            while (total < size) {
+                bytes.clear().limit(Math.min(bytes.capacity(), size - total));
+                int n = channel.read(bytes, position + total);
+                if (n <= 0)
+                    break;
+
+                bytes.flip();
+                view.set(total, cells, 0, toCells(bytes, cells));
+                total += n;
+            }
+        } catch (IOException e) {
+            throw new JILNativeException(e.toString());
+        }
+
+        return total == 0 && size > 0 ? -1 : total;
+    }
+
+    private static int write(JILMemory memory, FileChannel channel, int bufPtr, long position) throws JILException, JILNativeException {
+        JILMemory.View view = memory.view(bufPtr);
+        int size = view.size();
+
+        ByteBuffer bytes = ByteBuffer.allocate(Math.min(size, CHUNK));
+        int[] cells = new int[bytes.capacity()];
+        try {
+            for (int done = 0; done < size; ) {
+                int n = Math.min(cells.length, size - done);
+                view.get(done, cells, 0, n);
+
+                bytes.clear();
+                for (int i = 0; i < n; i++)
+                    bytes.put((byte) cells[i]);
+                bytes.flip();
+
+                while (bytes.hasRemaining())
+                    done += position < 0 ? channel.write(bytes) : channel.write(bytes, position + done);
+            }
+        } catch (IOException e) {
+            throw new JILNativeException(e.toString());
+        }
+
+        return size;
+    }
+
+    /*
+     * Writes every cell of the buffer as a byte, starting at the offset; returns how many bytes were written
+     */
+    @JILNative("")
+    public static int writeAt(JILMemory memory, HashMap<String, JILFunction> funcs, int handlePtr, int bufPtr, int offsetPtr) throws JILException, JILNativeException {
+        return write(memory, file(memory, handlePtr), bufPtr, longArg(memory, offsetPtr));
+    }
+
+    /*
+     * Writes every cell of the buffer as a byte at the file's current position, which for files opened to append is the end
+     */
+    @JILNative("")
+    public static int append(JILMemory memory, HashMap<String, JILFunction> funcs, int handlePtr, int bufPtr) throws JILException, JILNativeException {
+        return write(memory, file(memory, handlePtr), bufPtr, -1);
+    }
+
+    /*
+     * Maps the given number of bytes of the file starting at the offset; the region is writable if the file was opened to read and write
+     */
+    @JILNative("")
+    public static int mapFile(JILMemory memory, HashMap<String, JILFunction> funcs, int handlePtr, int offsetPtr, int lengthPtr) throws JILException, JILNativeException {
+        FileChannel channel = file(memory, handlePtr);
+        long offset = longArg(memory, offsetPtr);
+        long length = longArg(memory, lengthPtr);
+        if (length < 0 || length > Integer.MAX_VALUE)
+            throw new JILNativeException(String.format("cannot map %d bytes at once", length));
+
+        try {
+            MappedByteBuffer region;
+            try {
+                region = channel.map(FileChannel.MapMode.READ_WRITE, offset, length);
+            } catch (java.nio.channels.NonWritableChannelException e) {
+                region = channel.map(FileChannel.MapMode.READ_ONLY, offset, length);
+            }
+
+            return addHandle(memory, region);
+        } catch (IOException | RuntimeException e) {
+            throw new JILNativeException(e.toString());
+        }
+    }
+
+    @JILNative("")
+    public static int unmap(JILMemory memory, HashMap<String, JILFunction> funcs, int regionPtr) throws JILException, JILNativeException {
+        region(memory, regionPtr);
+        removeHandle(memory, memory.deref(regionPtr));
+        return 0;
+    }
+
+    @JILNative("")
+    public static int mapSize(JILMemory memory, HashMap<String, JILFunction> funcs, int regionPtr) throws JILException, JILNativeException {
+        return region(memory, regionPtr).capacity();
+    }
+
+    @JILNative("")
+    public static int mapGet(JILMemory memory, HashMap<String, JILFunction> funcs, int regionPtr, int indexPtr) throws JILException, JILNativeException {
+        MappedByteBuffer region = region(memory, regionPtr);
+        int index = memory.deref(indexPtr);
+        if (index < 0 || index >= region.capacity())
+            throw new JILNativeException(String.format("index %d is out of bounds for a region of %d bytes", index, region.capacity()));
+
+        return region.get(index) & 0xFF;
+    }
+
+    @JILNative("")
+    public static int mapSet(JILMemory memory, HashMap<String, JILFunction> funcs, int regionPtr, int indexPtr, int valuePtr) throws JILException, JILNativeException {
+        MappedByteBuffer region = region(memory, regionPtr);
+        int index = memory.deref(indexPtr);
+        if (index < 0 || index >= region.capacity())
+            throw new JILNativeException(String.format("index %d is out of bounds for a region of %d bytes", index, region.capacity()));
+        else if (region.isReadOnly())
+            throw new JILNativeException("the region is read only");
+
+        region.put(index, (byte) memory.deref(valuePtr));
+        return 0;
+    }
+
+    /*
+     * Returns the index of the next byte equal to the value at or after the given index, or -1 if there is none
+     */
+    @JILNative("")
+    public static int mapFind(JILMemory memory, HashMap<String, JILFunction> funcs, int regionPtr, int valuePtr, int fromPtr) throws JILException, JILNativeException {
+        MappedByteBuffer region = region(memory, regionPtr);
+        byte value = (byte) memory.deref(valuePtr);
+        int end = region.capacity();
+
+        for (int i = Math.max(memory.deref(fromPtr), 0); i < end; i++) {
+            if (region.get(i) == value)
+                return i;
+        }
+
+        return -1;
+    }
+
+    /*
+     * Copies bytes of the region starting at the given index into the buffer; returns how many were copied
+     */
+    @JILNative("")
+    public static int mapRead(JILMemory memory, HashMap<String, JILFunction> funcs, int regionPtr, int bufPtr, int fromPtr) throws JILException, JILNativeException {
+        MappedByteBuffer region = region(memory, regionPtr);
+        JILMemory.View view = memory.view(bufPtr);
+        int from = memory.deref(fromPtr);
+        if (from < 0 || from > region.capacity())
+            throw new JILNativeException(String.format("index %d is out of bounds for a region of %d bytes", from, region.capacity()));
+
+        int total = Math.min(view.size(), region.capacity() - from);
+        int[] cells = new int[Math.min(total, CHUNK)];
+        for (int done = 0; done < total; ) {
+            int n = Math.min(cells.length, total - done);
+            view.set(done, cells, 0, toCells(region.slice(from + done, n), cells));
+            done += n;
+        }
+
+        return total;
+    }
+}
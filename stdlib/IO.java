@@ -11,31 +11,37 @@ import java.io.*;
 public class IO {
     @JILNative("")
     public static int print(JILMemory memory, HashMap<String, JILFunction> funcs, int ptr) throws JILException, JILNativeException {
-        System.out.print(memory.deref(ptr));
+        memory.output().print(memory.deref(ptr));
         return 0;
     }
 
     @JILNative("")
     public static int prints(JILMemory memory, HashMap<String, JILFunction> funcs, int ptr) throws JILException, JILNativeException {
-        System.out.print(memory.derefString(ptr));
+        memory.output().printCells(memory, ptr);
         return 0;
     }
 
     @JILNative("")
     public static int println(JILMemory memory, HashMap<String, JILFunction> funcs, int ptr) throws JILException, JILNativeException {
-        System.out.println(memory.deref(ptr));
+        memory.output().println(memory.deref(ptr));
         return 0;
     }
 
     @JILNative("")
     public static int printsln(JILMemory memory, HashMap<String, JILFunction> funcs, int ptr) throws JILException, JILNativeException {
-        System.out.println(memory.derefString(ptr));
+        memory.output().printCellsln(memory, ptr);
+        return 0;
+    }
+
+    @JILNative("")
+    public static int flush(JILMemory memory, HashMap<String, JILFunction> funcs) throws JILException, JILNativeException {
+        memory.output().flush();
         return 0;
     }
 
     @JILNative("")
     public static int sizeOfFile(JILMemory memory, HashMap<String, JILFunction> funcs, int ptr) throws JILException, JILNativeException {
-        File f = new File(memory.derefString(ptr));
+        File f = memory.resolve(memory.derefString(ptr));
         if (!f.exists() || !f.isFile())
             return -1;
 
@@ -45,7 +51,7 @@ public class IO {
     @JILNative("")
     public static int readFile(JILMemory memory, HashMap<String, JILFunction> funcs, int ptrIn, int ptrOut) throws JILException, JILNativeException {
         String content = "";
-        try(BufferedReader br = new BufferedReader(new FileReader(memory.derefString(ptrIn)))) {
+        try(BufferedReader br = new BufferedReader(new FileReader(memory.resolve(memory.derefString(ptrIn))))) {
             StringBuilder sb = new StringBuilder();
             String line = br.readLine();
 
@@ -34,7 +34,7 @@ public class Mem {
     @JILNative("")
     public static int sizeOfPointer(JILMemory memory, HashMap<String, JILFunction> funcs, int ptr) throws JILException, JILNativeException {
         try {
-            return memory.derefArray(ptr).length;
+            return memory.sizeOf(ptr);
         } catch (JILException e) {
             throw new JILNativeException(e.getMessage());
         }
@@ -1,7 +1,18 @@
+import argparse
 import os
 import platform
 from pathlib import Path
 import subprocess
+import sys
+import tempfile
+
+JIL_CLASS_PATH = "../out/production/jil/"
+
+parser = argparse.ArgumentParser()
+
+parser.add_argument("-j", "--jar", action="store_true", help="installs the modules as ~/jil/lib/std.jar with an index of their natives, instead of as loose class files")
+
+parsed = parser.parse_args()
 
 
 def check_path(p: Path):
@@ -27,11 +38,37 @@ check_path(jil)
 check_path(lib)
 check_path(std)
 
-comp = []
+
+def install_jar():
+    sources = [f.name for f in current.iterdir() if f.is_file() and f.name.lower().endswith(".java")]
+
+    with tempfile.TemporaryDirectory() as classes:
+        ex = subprocess.run(["javac", "--release", "17", "-cp", JIL_CLASS_PATH, "-d", classes] + sources)
+        if ex.returncode:
+            sys.exit(1)
+
+        # writes META-INF/jil/std/<module>.natives, which lets modules be imported without reflecting over them
+        ex = subprocess.run(["java", "-cp", JIL_CLASS_PATH, "runtime.JILModules", classes, "std"])
+        if ex.returncode:
+            sys.exit(1)
+
+        ex = subprocess.run(["jar", "cf", str(Path(lib, "std.jar")), "-C", classes, "."])
+        if ex.returncode:
+            sys.exit(1)
+
+    # loose class files are found before jars, so remove the ones a previous install left behind
+    for f in std.iterdir():
+        if f.is_file() and f.name.endswith(".class"):
+            os.remove(str(f))
+
+
+if parsed.jar:  # pyright: ignore
+    install_jar()
+
 for f in current.iterdir():
     if f.is_file():
         ext = f.name.split(os.extsep)[-1].lower()
-        if ext == "java":
+        if ext == "java" and not parsed.jar:  # pyright: ignore
             ex = subprocess.run([py_command, "build_module.py", "-f", f.name, "-i"])
             if ex.returncode:
                 print(ex.stderr)